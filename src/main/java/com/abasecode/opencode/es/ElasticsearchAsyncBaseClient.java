@@ -0,0 +1,606 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.util.ObjectBuilder;
+import com.abasecode.opencode.es.entity.BaseT;
+import com.abasecode.opencode.es.util.RawJsonData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.readId;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.readJson;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toSingleLine;
+
+/**
+ * Non-blocking counterpart of ElasticsearchBaseClient.
+ * It shares the RestClientTransport of the base client, every method returns
+ * as soon as the request is sent and completes the future on the I/O thread.
+ * Do not block inside the callbacks, switch to an own executor with the *Async methods of CompletableFuture.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Component
+public class ElasticsearchAsyncBaseClient<T extends BaseT> {
+
+    private final static String SIMPLE_SCRIPT_ID = "es-simple-script";
+    private final static String SIMPLE_SCRIPT_TEMPLATE = "{\"query\":{\"match\":{\"{{field}}\":\"{{value}}\"}}}";
+    private final static String SIMPLE_SCRIPT_LANG = "mustache";
+    private final static int CONFLICT = 409;
+
+    private final ElasticsearchBaseClient<T> baseClient;
+    private final ElasticsearchAsyncClient client;
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient ElasticsearchBaseClient
+     */
+    @Autowired
+    public ElasticsearchAsyncBaseClient(ElasticsearchBaseClient<T> baseClient) {
+        this.baseClient = baseClient;
+        this.client = new ElasticsearchAsyncClient(baseClient.getTransport());
+    }
+
+    /**
+     * get ElasticsearchAsyncClient
+     *
+     * @return ElasticsearchAsyncClient
+     */
+    public ElasticsearchAsyncClient getClient() {
+        return client;
+    }
+
+    /**
+     * check if the index exists
+     *
+     * @param index index
+     * @return CompletableFuture<Boolean>
+     */
+    public CompletableFuture<Boolean> hasIndexExist(String index) {
+        if (null != index && !index.isEmpty()) {
+            return client.indices()
+                    .exists(a -> a.index(index))
+                    .thenApply(BooleanResponse::value);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * create index by json
+     *
+     * @param index     index
+     * @param indexJson index json
+     * @return CompletableFuture<Boolean>
+     */
+    public CompletableFuture<Boolean> createIndex(String index, String indexJson) {
+        CreateIndexRequest request = CreateIndexRequest.of(a -> a
+                .index(index)
+                .withJson(new StringReader(indexJson)));
+        return client.indices()
+                .create(request)
+                .thenApply(a -> a.acknowledged());
+    }
+
+    /**
+     * delete index
+     *
+     * @param index index
+     * @return CompletableFuture<Boolean>
+     */
+    public CompletableFuture<Boolean> deleteIndex(String index) {
+        return hasIndexExist(index).thenCompose(b -> {
+            if (b) {
+                return client.indices()
+                        .delete(a -> a.index(index))
+                        .thenApply(a -> a.acknowledged());
+            }
+            return CompletableFuture.completedFuture(false);
+        });
+    }
+
+    /**
+     * Check if the doc exists
+     *
+     * @param index index
+     * @param id    doc id
+     * @return CompletableFuture<Boolean>
+     */
+    public CompletableFuture<Boolean> hasDocExist(String index, String id) {
+        if (null != index && !index.isEmpty()) {
+            return client.exists(a -> a.index(index).id(id))
+                    .thenApply(BooleanResponse::value);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * delete doc by id
+     *
+     * @param index index
+     * @param id    doc id
+     * @return CompletableFuture<String> : deleted or not_found
+     */
+    public CompletableFuture<String> deleteDoc(String index, String id) {
+        return afterWrite(index, id, client.delete(DeleteRequest.of(a -> a.index(index).id(id))))
+                .thenApply(r -> r.result().jsonValue());
+    }
+
+    /**
+     * delete doc by list<Id>
+     *
+     * @param index index
+     * @param ids   list<String>
+     * @return CompletableFuture<BulkResponse>
+     */
+    public CompletableFuture<BulkResponse> deleteBulkWithList(String index, List<String> ids) {
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        ids.stream().forEach(id -> {
+            builder.operations(o -> o.delete(d -> d.index(index).id(id)));
+        });
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc.
+     * hasForce=false runs as one create request, an existing doc is not overwritten
+     *
+     * @param index    index
+     * @param json     json
+     * @param id       id
+     * @param hasForce has force
+     * @return CompletableFuture<String>，updated, created or exists
+     */
+    public CompletableFuture<String> saveOrUpdateDocByJson(String index, String json, String id, Boolean hasForce) {
+        return index(IndexRequest.of(a -> a
+                .index(index)
+                .id(id)
+                .withJson(new StringReader(json))
+                .opType(hasForce ? OpType.Index : OpType.Create)));
+    }
+
+    /**
+     * save or update by T.
+     * hasForce=false runs as one create request, an existing doc is not overwritten
+     *
+     * @param index    index
+     * @param t        T
+     * @param hasForce has force
+     * @return CompletableFuture<String>，updated, created or exists
+     */
+    public CompletableFuture<String> saveOrUpdateDoc(String index, T t, boolean hasForce) {
+        return index(IndexRequest.of(a -> a
+                .index(index)
+                .id(t.getId())
+                .document(t)
+                .opType(hasForce ? OpType.Index : OpType.Create)));
+    }
+
+    /**
+     * send index request, a version conflict of create means the doc exists
+     *
+     * @param request IndexRequest
+     * @return CompletableFuture<String>，updated, created or exists
+     */
+    private CompletableFuture<String> index(IndexRequest<?> request) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        afterWrite(request.index(), request.id(), client.index(request)).whenComplete((r, e) -> {
+            if (e == null) {
+                future.complete(r.result().jsonValue());
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (request.opType() == OpType.Create
+                    && cause instanceof ElasticsearchException
+                    && ((ElasticsearchException) cause).status() == CONFLICT) {
+                future.complete("exists");
+            } else {
+                future.completeExceptionally(cause);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * save or update doc by list<json>
+     *
+     * @param index index
+     * @param jsons json list
+     * @return CompletableFuture<BulkResponse>
+     */
+    public CompletableFuture<BulkResponse> saveOrUpdateDocBulkWithJson(String index, List<String> jsons) {
+        if (null == jsons || jsons.isEmpty()) {
+            return failed(new IOException("jsons cannot be empty！"));
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        jsons.stream().forEach(a -> {
+            JsonData json = readJson(new ByteArrayInputStream(a.getBytes()), baseClient.getClient());
+            builder.operations(o -> o
+                    .index(i -> i.index(index)
+                            .id(json.toJson().asJsonObject().getString("id"))
+                            .document(json)));
+        });
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc by list<json> without parsing it, see ElasticsearchBaseClient.saveOrUpdateDocBulkWithRawJson
+     *
+     * @param index index
+     * @param jsons json list
+     * @return CompletableFuture<BulkResponse>
+     */
+    public CompletableFuture<BulkResponse> saveOrUpdateDocBulkWithRawJson(String index, List<String> jsons) {
+        if (null == jsons || jsons.isEmpty()) {
+            return failed(new IOException("jsons cannot be empty！"));
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        try {
+            for (String a : jsons) {
+                byte[] json = a.getBytes(StandardCharsets.UTF_8);
+                String id = readId(json);
+                RawJsonData document = new RawJsonData(toSingleLine(json));
+                builder.operations(o -> o
+                        .index(i -> i.index(index)
+                                .id(id)
+                                .document(document)));
+            }
+        } catch (IOException e) {
+            return failed(e);
+        }
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc by List<T>
+     *
+     * @param index index
+     * @param list  list T
+     * @return CompletableFuture<BulkResponse>
+     */
+    public CompletableFuture<BulkResponse> saveOrUpdateDocBulkWithList(String index, List<T> list) {
+        if (null == list || list.isEmpty()) {
+            return failed(new IOException("list cannot be empty！"));
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        list.stream().forEach(t -> {
+            builder.operations(o -> o.index(i -> i
+                    .index(index)
+                    .id(t.getId())
+                    .document(t)));
+        });
+        return bulk(builder.build());
+    }
+
+    /**
+     * get searchResponse by json
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @param clazz       class
+     * @return CompletableFuture<SearchResponse<T>>
+     */
+    public CompletableFuture<SearchResponse<T>> getSearchResponse(String index, String json, PageRequest pageRequest, Class<T> clazz) {
+        return client.search(baseClient.getSearchRequest(index, json, pageRequest), clazz);
+    }
+
+    /**
+     * query by id
+     *
+     * @param index index
+     * @param id    id
+     * @param clazz class
+     * @return CompletableFuture<T>, completed with null if not found
+     */
+    public CompletableFuture<T> queryById(String index, String id, Class<T> clazz) {
+        return client.get(g -> g
+                        .index(index)
+                        .id(id), clazz)
+                .thenApply(r -> r.found() ? r.source() : null);
+    }
+
+    /**
+     * query by keyword simple match
+     *
+     * @param index   index
+     * @param field   field
+     * @param keyword keyword
+     * @param clazz   class
+     * @return CompletableFuture<List<T>>
+     */
+    public CompletableFuture<List<T>> queryByKeywordSimple(String index, String field, String keyword, Class<T> clazz) {
+        return client.search(s -> s
+                        .index(index)
+                        .query(q -> q.match(t -> t
+                                .field(field)
+                                .query(keyword))), clazz)
+                .thenApply(this::getSources);
+    }
+
+    /**
+     * query by json
+     *
+     * @param index index
+     * @param json  json
+     * @param clazz class
+     * @return CompletableFuture<List<T>>
+     */
+    public CompletableFuture<List<T>> queryByJson(String index, String json, Class<T> clazz) {
+        return getSearchResponse(index, json, null, clazz)
+                .thenApply(this::getSources);
+    }
+
+    /**
+     * query fields by json.
+     * notice: Json must specify the fields to be returned
+     *
+     * @param index index
+     * @param json  json
+     * @return CompletableFuture<List<Map<String, JsonData>>>
+     */
+    public CompletableFuture<List<Map<String, JsonData>>> queryFieldsByJson(String index, String json) {
+        return client.search(baseClient.getSearchRequest(index, json, null), Object.class)
+                .thenApply(r -> r.hits().hits().stream()
+                        .map(a -> a.fields())
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * query by json with page
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest
+     * @param clazz       class
+     * @return CompletableFuture<Page<T>>
+     */
+    public CompletableFuture<Page<T>> queryByJsonWithPage(String index, String json, PageRequest pageRequest, Class<T> clazz) {
+        return getSearchResponse(index, json, pageRequest, clazz)
+                .thenApply(r -> new PageImpl<>(getSources(r), pageRequest, r.hits().total().value()));
+    }
+
+    /**
+     * query by json with page
+     *
+     * @param index    index
+     * @param json     json
+     * @param pageNum  pageNum
+     * @param pageSize pageSize
+     * @param clazz    class
+     * @return CompletableFuture<Page<T>>
+     */
+    public CompletableFuture<Page<T>> queryByJsonWithPage(String index, String json, Integer pageNum, Integer pageSize, Class<T> clazz) {
+        PageRequest pageRequest = PageRequest.of(pageNum, pageSize);
+        return queryByJsonWithPage(index, json, pageRequest, clazz);
+    }
+
+    /**
+     * get stringTermsBucket by json
+     *
+     * @param index           index
+     * @param aggregationJson json
+     * @param aggName         agg name
+     * @return CompletableFuture<List<StringTermsBucket>>
+     */
+    public CompletableFuture<List<StringTermsBucket>> getStringTermsBucketByJson(String index, String aggregationJson, String aggName) {
+        return client.search(baseClient.getSearchRequest(index, aggregationJson, null), Void.class)
+                .thenApply(r -> r.aggregations()
+                        .get(aggName)
+                        .sterms()
+                        .buckets()
+                        .array());
+    }
+
+    /**
+     * get suggestion sets by json
+     *
+     * @param index          index
+     * @param suggestionJson suggestion json
+     * @param suggestName    suggest name
+     * @return CompletableFuture<Set<String>>
+     */
+    public CompletableFuture<Set<String>> getSuggestionsByJson(String index, String suggestionJson, String suggestName) {
+        return client.search(baseClient.getSearchRequest(index, suggestionJson, null), Void.class)
+                .thenApply(r -> r.suggest()
+                        .get(suggestName)
+                        .get(0)
+                        .completion()
+                        .options()
+                        .stream()
+                        .map(a -> a.text())
+                        .collect(Collectors.toSet()));
+    }
+
+    /**
+     * get histogramBucket by json
+     *
+     * @param index           index
+     * @param aggregationJson aggregationJson
+     * @param aggName         agg name
+     * @return CompletableFuture<List<HistogramBucket>>
+     */
+    public CompletableFuture<List<HistogramBucket>> getHistogramBucketByJson(String index, String aggregationJson, String aggName) {
+        return client.search(baseClient.getSearchRequest(index, aggregationJson, null), Void.class)
+                .thenApply(r -> r.aggregations()
+                        .get(aggName)
+                        .histogram()
+                        .buckets()
+                        .array());
+    }
+
+    /**
+     * query by simple script template, the script is created when missing.
+     * The script registry of the base client is shared, the cluster is checked on first use only
+     *
+     * @param index index
+     * @param field field
+     * @param value value
+     * @param clazz class
+     * @return CompletableFuture<List<T>>
+     */
+    public CompletableFuture<List<T>> queryBySimpleTemplate(String index, String field, String value, Class<T> clazz) {
+        ElasticsearchScriptRegistry registry = baseClient.getScriptRegistry();
+        CompletableFuture<?> ready;
+        if (registry.isRegistered(SIMPLE_SCRIPT_ID, SIMPLE_SCRIPT_TEMPLATE, SIMPLE_SCRIPT_LANG)) {
+            ready = CompletableFuture.completedFuture(null);
+        } else {
+            ready = client.getScript(GetScriptRequest.of(a -> a.id(SIMPLE_SCRIPT_ID)))
+                    .thenCompose(r -> {
+                        if (r.found()) {
+                            // cached as it is in the cluster, a different script is not replaced
+                            registry.registered(SIMPLE_SCRIPT_ID, r.script().source(), r.script().lang());
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return client.putScript(p -> p.id(SIMPLE_SCRIPT_ID)
+                                .script(s -> s
+                                        .lang(SIMPLE_SCRIPT_LANG)
+                                        .source(SIMPLE_SCRIPT_TEMPLATE)))
+                                .thenApply(p -> {
+                                    registry.registered(SIMPLE_SCRIPT_ID, SIMPLE_SCRIPT_TEMPLATE, SIMPLE_SCRIPT_LANG);
+                                    return p;
+                                });
+                    });
+        }
+        return ready
+                .thenCompose(r -> queryByScriptTemplate(a -> a
+                        .index(index)
+                        .id(SIMPLE_SCRIPT_ID)
+                        .params("field", JsonData.of(field))
+                        .params("value", JsonData.of(value)), clazz))
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        registry.forget(SIMPLE_SCRIPT_ID);
+                    }
+                });
+    }
+
+    /**
+     * query by script template
+     *
+     * @param fn    fn
+     * @param clazz class
+     * @return CompletableFuture<List<T>>
+     */
+    public CompletableFuture<List<T>> queryByScriptTemplate(Function<SearchTemplateRequest.Builder, ObjectBuilder<SearchTemplateRequest>> fn,
+                                                            Class<T> clazz) {
+        return client.searchTemplate(fn, clazz)
+                .thenApply(r -> {
+                    List<T> list = new ArrayList<>();
+                    r.hits().hits().stream().forEach(a -> list.add(a.source()));
+                    return list;
+                });
+    }
+
+    /**
+     * query by script template
+     *
+     * @param index    index
+     * @param scriptId scriptId
+     * @param map      map
+     * @param clazz    class
+     * @return CompletableFuture<List<T>>
+     */
+    public CompletableFuture<List<T>> queryByScriptTemplate(String index, String scriptId, Map<String, JsonData> map, Class<T> clazz) {
+        return queryByScriptTemplate(s -> s.index(index)
+                .id(scriptId)
+                .params(map), clazz);
+    }
+
+    /**
+     * update by query with json
+     *
+     * @param index index
+     * @param json  json
+     * @return CompletableFuture<Long>
+     */
+    public CompletableFuture<Long> updateByQueryWithJson(String index, String json) {
+        return afterWrite(index, client.updateByQuery(a -> a.index(index)
+                        .withJson(new StringReader(json))))
+                .thenApply(UpdateByQueryResponse::updated);
+    }
+
+    /**
+     * invalidate caches of the index when the write by query completes
+     *
+     * @param index  index
+     * @param future write
+     * @return CompletableFuture<R>
+     */
+    private <R> CompletableFuture<R> afterWrite(String index, CompletableFuture<R> future) {
+        return future.whenComplete((r, e) -> baseClient.afterWrite(index));
+    }
+
+    /**
+     * invalidate caches of the doc when the write completes
+     *
+     * @param index  index
+     * @param id     doc id
+     * @param future write
+     * @return CompletableFuture<R>
+     */
+    private <R> CompletableFuture<R> afterWrite(String index, String id, CompletableFuture<R> future) {
+        return future.whenComplete((r, e) -> baseClient.afterWrite(index, id));
+    }
+
+    /**
+     * send bulk request, caches of the written docs are invalidated when it completes
+     *
+     * @param request BulkRequest
+     * @return CompletableFuture<BulkResponse>
+     */
+    private CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        return client.bulk(request).whenComplete((r, e) -> baseClient.afterWrite(request.operations()));
+    }
+
+    /**
+     * get sources of hits
+     *
+     * @param response SearchResponse
+     * @return List<T>
+     */
+    private List<T> getSources(SearchResponse<T> response) {
+        List<T> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return list;
+    }
+
+    /**
+     * failed future, CompletableFuture.failedFuture is not in java 8
+     *
+     * @param e Throwable
+     * @return CompletableFuture
+     */
+    private static <R> CompletableFuture<R> failed(Throwable e) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
@@ -1,21 +1,41 @@
 package com.abasecode.opencode.es;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
 import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
 import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
 import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import co.elastic.clients.elasticsearch.core.search.TotalHits;
+import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
 import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
 import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpMapper;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
 import co.elastic.clients.util.ObjectBuilder;
 import com.abasecode.opencode.es.config.ElasticsearchConfig;
 import com.abasecode.opencode.es.entity.BaseT;
+import com.abasecode.opencode.es.entity.BulkResult;
+import com.abasecode.opencode.es.entity.LoadStats;
+import com.abasecode.opencode.es.entity.MgetResult;
+import com.abasecode.opencode.es.util.RawJsonData;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParsingException;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.nio.entity.NByteArrayEntity;
 import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,12 +45,25 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.getId;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.getIndex;
 import static com.abasecode.opencode.es.util.ElasticsearchUtil.getList;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.getSourceFields;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.readId;
 import static com.abasecode.opencode.es.util.ElasticsearchUtil.readJson;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toJsonBytes;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toSingleLine;
 
 /**
  * @author Jon
@@ -47,12 +80,36 @@ public class ElasticsearchBaseClient<T extends BaseT> {
 
     private final static String SIMPLE_SCRIPT_ID = "es-simple-script";
     private final static String DEFAULT_SCRIPT_LANG = "painless";
+    private final static String SIMPLE_SCRIPT_TEMPLATE = "{\"query\":{\"match\":{\"{{field}}\":\"{{value}}\"}}}";
+    private final static String SIMPLE_SCRIPT_LANG = "mustache";
 
     private final static Integer PAGE_ONE = 1;
     private final static Integer PAGE_SIZE = 10;
+    private final static int STREAM_PAGE_SIZE = 1000;
+    private final static int MGET_CHUNK_SIZE = 1000;
+    private final static int MAX_QUERY_TEMPLATES = 256;
+
+    private final static int CONFLICT = 409;
+    private final static int TOO_MANY_REQUESTS = 429;
+    private final static int SERVICE_UNAVAILABLE = 503;
+    private final static String REJECTED_EXECUTION = "es_rejected_execution_exception";
+    private final static long DEFAULT_BACKOFF = 100;
+    private final static long MAX_BACKOFF = 30000;
 
     private ElasticsearchClient client;
     private RestClientTransport transport;
+    private volatile ElasticsearchWriteCoalescer<T> writeCoalescer;
+    private volatile ElasticsearchQueryCache queryCache;
+    private volatile ElasticsearchNearCache nearCache;
+    private volatile ElasticsearchSingleFlight singleFlight;
+    private final Map<String, ElasticsearchQueryTemplate> queryTemplates = new LinkedHashMap<String, ElasticsearchQueryTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ElasticsearchQueryTemplate> eldest) {
+            return size() > MAX_QUERY_TEMPLATES;
+        }
+    };
+    private final Map<Class<?>, List<String>> projectionFields = new ConcurrentHashMap<>();
+    private final ElasticsearchScriptRegistry scriptRegistry = new ElasticsearchScriptRegistry(this);
 
     /**
      * Instantiation
@@ -84,6 +141,181 @@ public class ElasticsearchBaseClient<T extends BaseT> {
         this.transport = transport;
     }
 
+    /**
+     * get ElasticsearchClient
+     *
+     * @return ElasticsearchClient
+     */
+    public ElasticsearchClient getClient() {
+        return client;
+    }
+
+    /**
+     * get RestClientTransport
+     *
+     * @return RestClientTransport
+     */
+    public RestClientTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * enable write coalescing, saveOrUpdateDoc(index, t, hasForce) calls of all threads
+     * within the window are sent as one bulk request
+     *
+     * @param window  max wait of the first write, milliseconds
+     * @param maxDocs max docs per bulk request
+     */
+    public synchronized void enableWriteCoalescing(long window, int maxDocs) {
+        disableWriteCoalescing();
+        this.writeCoalescer = new ElasticsearchWriteCoalescer<>(this, window, maxDocs);
+    }
+
+    /**
+     * disable write coalescing, waiting writes are sent
+     */
+    public synchronized void disableWriteCoalescing() {
+        if (writeCoalescer != null) {
+            writeCoalescer.close();
+            writeCoalescer = null;
+        }
+    }
+
+    /**
+     * enable coalescing of identical in-flight reads, see ElasticsearchSingleFlight
+     *
+     * @param methods coalesced methods, see ElasticsearchSingleFlight.METHODS, all if empty
+     * @return ElasticsearchSingleFlight, methods can be switched on and off later
+     */
+    public synchronized ElasticsearchSingleFlight enableSingleFlight(String... methods) {
+        this.singleFlight = new ElasticsearchSingleFlight(methods);
+        return singleFlight;
+    }
+
+    /**
+     * disable coalescing of reads, reads in flight are not affected
+     */
+    public synchronized void disableSingleFlight() {
+        this.singleFlight = null;
+    }
+
+    /**
+     * get single flight
+     *
+     * @return ElasticsearchSingleFlight, null if disabled
+     */
+    public ElasticsearchSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * enable query result cache for queryByJson and queryByJsonWithPage.
+     * Hits are cached as json bytes and decoded on every call, returned objects are not shared.
+     * Writes through this client invalidate the entries of the written index, see ElasticsearchQueryCache
+     *
+     * @param maxEntries max entries
+     * @param ttl        ttl, milliseconds, per index ttl is set on getQueryCache()
+     * @return ElasticsearchQueryCache
+     */
+    public synchronized ElasticsearchQueryCache enableQueryCache(int maxEntries, long ttl) {
+        this.queryCache = new ElasticsearchQueryCache(maxEntries, ttl);
+        return queryCache;
+    }
+
+    /**
+     * disable query result cache
+     */
+    public synchronized void disableQueryCache() {
+        this.queryCache = null;
+    }
+
+    /**
+     * get query result cache
+     *
+     * @return ElasticsearchQueryCache, null if disabled
+     */
+    public ElasticsearchQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * enable off-heap near cache for queryById.
+     * Writes through this client invalidate the written ids, see ElasticsearchNearCache
+     *
+     * @param capacity off-heap bytes
+     * @param slotSize bytes per slot, e.g. the median document size
+     * @return ElasticsearchNearCache
+     */
+    public synchronized ElasticsearchNearCache enableNearCache(int capacity, int slotSize) {
+        this.nearCache = new ElasticsearchNearCache(transport.jsonpMapper(), capacity, slotSize);
+        return nearCache;
+    }
+
+    /**
+     * disable near cache
+     */
+    public synchronized void disableNearCache() {
+        this.nearCache = null;
+    }
+
+    /**
+     * get near cache
+     *
+     * @return ElasticsearchNearCache, null if disabled
+     */
+    public ElasticsearchNearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * invalidate caches of an index after a write by query
+     *
+     * @param index index
+     */
+    void afterWrite(String index) {
+        ElasticsearchQueryCache cache = queryCache;
+        if (cache != null && index != null) {
+            cache.invalidate(index);
+        }
+        ElasticsearchNearCache near = nearCache;
+        if (near != null && index != null) {
+            near.invalidate(index);
+        }
+    }
+
+    /**
+     * invalidate caches after a write of one doc
+     *
+     * @param index index
+     * @param id    doc id, null if generated by elasticsearch
+     */
+    void afterWrite(String index, String id) {
+        ElasticsearchQueryCache cache = queryCache;
+        if (cache != null && index != null) {
+            cache.invalidate(index);
+        }
+        ElasticsearchNearCache near = nearCache;
+        if (near != null && index != null && id != null) {
+            near.invalidate(index, id);
+        }
+    }
+
+    /**
+     * invalidate caches after a bulk write
+     *
+     * @param operations operations
+     */
+    void afterWrite(List<BulkOperation> operations) {
+        ElasticsearchQueryCache cache = queryCache;
+        if (cache != null) {
+            operations.stream().map(a -> getIndex(a)).filter(Objects::nonNull).distinct().forEach(cache::invalidate);
+        }
+        ElasticsearchNearCache near = nearCache;
+        if (near != null) {
+            operations.stream().filter(a -> getIndex(a) != null && getId(a) != null).forEach(a -> near.invalidate(getIndex(a), getId(a)));
+        }
+    }
+
     /**
      * check if the index exists
      *
@@ -149,14 +381,29 @@ public class ElasticsearchBaseClient<T extends BaseT> {
     public boolean deleteIndex(String index) throws IOException {
         if (null != index && !index.isEmpty()) {
             if (hasIndexExist(index)) {
-                return client.indices()
-                        .delete(a -> a.index(index))
-                        .acknowledged();
+                try {
+                    return client.indices()
+                            .delete(a -> a.index(index))
+                            .acknowledged();
+                } finally {
+                    afterWrite(index);
+                }
             }
         }
         return false;
     }
 
+    /**
+     * open bulk load session, refresh and replicas are turned off until the session is closed
+     *
+     * @param index index
+     * @return ElasticsearchBulkLoadSession
+     * @throws IOException
+     */
+    public ElasticsearchBulkLoadSession openBulkLoadSession(String index) throws IOException {
+        return ElasticsearchBulkLoadSession.open(this, index);
+    }
+
     /**
      * Check if the doc exists
      *
@@ -181,8 +428,12 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      * @throws IOException
      */
     public String deleteDoc(String index, String id) throws IOException {
-        DeleteResponse r = client.delete(DeleteRequest.of(a -> a.index(index).id(id)));
-        return r.result().jsonValue();
+        try {
+            DeleteResponse r = client.delete(DeleteRequest.of(a -> a.index(index).id(id)));
+            return r.result().jsonValue();
+        } finally {
+            afterWrite(index, id);
+        }
     }
 
     /**
@@ -198,120 +449,197 @@ public class ElasticsearchBaseClient<T extends BaseT> {
         ids.stream().forEach(id -> {
             builder.operations(o -> o.delete(d -> d.index(index).id(id)));
         });
-        return client.bulk(builder.build());
+        return bulk(builder.build());
     }
 
     /**
-     * save or update doc
+     * delete doc by id iterator, in bounded chunks sent by parallel lanes.
+     * Use it instead of deleteBulkWithList for millions of ids, see ElasticsearchParallelLoader
+     *
+     * @param index       index
+     * @param ids         Iterator<String>
+     * @param parallelism bulk requests in flight
+     * @return LoadStats
+     * @throws IOException
+     */
+    public LoadStats deleteBulkWithIterator(String index, Iterator<String> ids, int parallelism) throws IOException {
+        return new ElasticsearchParallelLoader<>(this, parallelism).delete(index, ids);
+    }
+
+    /**
+     * save or update doc.
+     * hasForce=false runs as one create request, an existing doc is not overwritten
      *
      * @param index    index
      * @param json     json
      * @param id       id
      * @param hasForce has force
-     * @return String，updated or created
+     * @return String，updated, created or exists
      * @throws IOException
      */
     public String saveOrUpdateDocByJson(String index, String json, String id, Boolean hasForce) throws IOException {
-        boolean b = hasDocExist(index, id);
-        if (b) {
-            if (hasForce) {
-                return saveOrUpdateDocByJson(index, json, id);
-            }
-            return "exists";
-        }
-        return saveOrUpdateDocByJson(index, json, id);
+        return saveOrUpdateDocByJson(index, json, id, hasForce ? OpType.Index : OpType.Create);
     }
 
     /**
      * save or update doc
      *
-     * @param index index
-     * @param json  json
-     * @param id    doc id
-     * @return String，updated or created
+     * @param index  index
+     * @param json   json
+     * @param id     doc id
+     * @param opType index or create
+     * @return String，updated, created or exists
      * @throws IOException
      */
-    private String saveOrUpdateDocByJson(String index, String json, String id) throws IOException {
-        IndexResponse r = client.index(IndexRequest.of(a -> a
+    private String saveOrUpdateDocByJson(String index, String json, String id, OpType opType) throws IOException {
+        return index(IndexRequest.of(a -> a
                 .index(index)
                 .id(id)
-                .withJson(new StringReader(json))));
-        return r.result().jsonValue();
+                .withJson(new StringReader(json))
+                .opType(opType)));
     }
 
     /**
-     * save or update doc by json file
+     * save or update doc by json file.
+     * hasForce=false runs as one create request, an existing doc is not overwritten
      *
      * @param index    index
      * @param file     file
      * @param id       doc id
      * @param hasForce has force
-     * @return String，updated or created
+     * @return String，updated, created or exists
      * @throws IOException
      */
     public String saveOrUpdateDocByJsonFile(String index, String file, String id, Boolean hasForce) throws IOException {
-        boolean b = hasDocExist(index, id);
-        if (b) {
-            if (hasForce) {
-                return saveOrUpdateDocByJsonFile(index, file, id);
-            }
-            return "exists";
-        }
-        return saveOrUpdateDocByJsonFile(index, file, id);
+        return saveOrUpdateDocByJsonFile(index, file, id, hasForce ? OpType.Index : OpType.Create);
     }
 
     /**
      * save or update doc by json file
      *
-     * @param index index
-     * @param file  file
-     * @param id    doc id
-     * @return String，updated or created
+     * @param index  index
+     * @param file   file
+     * @param id     doc id
+     * @param opType index or create
+     * @return String，updated, created or exists
      * @throws IOException
      */
-    private String saveOrUpdateDocByJsonFile(String index, String file, String id) throws IOException {
-        FileInputStream stream = new FileInputStream(file);
-        IndexResponse r = client.index(IndexRequest.of(a -> a
-                .index(index)
-                .id(id)
-                .withJson(stream)));
-        return r.result().jsonValue();
+    private String saveOrUpdateDocByJsonFile(String index, String file, String id, OpType opType) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            return index(IndexRequest.of(a -> a
+                    .index(index)
+                    .id(id)
+                    .withJson(stream)
+                    .opType(opType)));
+        }
     }
 
     /**
-     * save or update by T
+     * save or update by T.
+     * hasForce=false runs as one create request, an existing doc is not overwritten.
+     * With write coalescing enabled the doc goes into a shared bulk request
      *
      * @param index    index
      * @param t        T
-     * @param hasForce
-     * @return String，updated or created
+     * @param hasForce has force
+     * @return String，updated, created or exists
      * @throws IOException
      */
     public String saveOrUpdateDoc(String index, T t, boolean hasForce) throws IOException {
-        boolean b = hasDocExist(index, t.getId());
-        if (b) {
-            if (hasForce) {
-                return saveOrUpdateDoc(index, t);
+        ElasticsearchWriteCoalescer<T> coalescer = writeCoalescer;
+        if (coalescer != null) {
+            try {
+                return await(coalescer.saveOrUpdateDoc(index, t, hasForce));
+            } finally {
+                afterWrite(index, t.getId());
             }
-            return "exists";
         }
-        return saveOrUpdateDoc(index, t);
+        return saveOrUpdateDoc(index, t, hasForce ? OpType.Index : OpType.Create);
     }
 
     /**
      * save or upate by T
      *
-     * @param index index
-     * @param t     T
-     * @return String，updated or created
+     * @param index  index
+     * @param t      T
+     * @param opType index or create
+     * @return String，updated, created or exists
      * @throws IOException
      */
-    private String saveOrUpdateDoc(String index, T t) throws IOException {
-        IndexResponse r = client.index(IndexRequest.of(a -> a
+    private String saveOrUpdateDoc(String index, T t, OpType opType) throws IOException {
+        return index(IndexRequest.of(a -> a
                 .index(index)
                 .id(t.getId())
-                .document(t)));
-        return r.result().jsonValue();
+                .document(t)
+                .opType(opType)));
+    }
+
+    /**
+     * send index request, a version conflict of create means the doc exists
+     *
+     * @param request IndexRequest
+     * @return String，updated, created or exists
+     * @throws IOException
+     */
+    private String index(IndexRequest<?> request) throws IOException {
+        try {
+            return client.index(request).result().jsonValue();
+        } catch (ElasticsearchException e) {
+            if (request.opType() == OpType.Create && e.status() == CONFLICT) {
+                return "exists";
+            }
+            throw e;
+        } finally {
+            afterWrite(request.index(), request.id());
+        }
+    }
+
+    /**
+     * send bulk request
+     *
+     * @param request BulkRequest
+     * @return BulkResponse
+     * @throws IOException
+     */
+    private BulkResponse bulk(BulkRequest request) throws IOException {
+        try {
+            return client.bulk(request);
+        } finally {
+            afterWrite(request.operations());
+        }
+    }
+
+    /**
+     * save doc by List<T> if absent, one bulk request with create operations.
+     * Existing docs are not overwritten and reported in BulkResult.existed
+     *
+     * @param index index
+     * @param list  list T
+     * @return BulkResult
+     * @throws IOException
+     */
+    public BulkResult saveDocBulkIfAbsentWithList(String index, List<T> list) throws IOException {
+        if (null == list || list.isEmpty()) {
+            throw new IOException("list cannot be empty！");
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        list.stream().forEach(t -> {
+            builder.operations(o -> o.create(c -> c
+                    .index(index)
+                    .id(t.getId())
+                    .document(t)));
+        });
+        BulkResult result = new BulkResult();
+        bulk(builder.build()).items().stream().forEach(item -> {
+            if (item.error() == null) {
+                result.getSucceeded().add(item.id());
+            } else if (item.status() == CONFLICT) {
+                result.getExisted().add(item.id());
+            } else {
+                result.getFailed().put(item.id(), item.error().type() + ": " + item.error().reason());
+            }
+        });
+        return result;
     }
 
     /**
@@ -330,13 +658,16 @@ public class ElasticsearchBaseClient<T extends BaseT> {
         File[] files = new File(path).listFiles(f -> f.getName().matches(".*\\.json"));
         BulkRequest.Builder builder = new BulkRequest.Builder();
         for (File file : files) {
-            JsonData json = readJson(new FileInputStream(file), client);
+            JsonData json;
+            try (FileInputStream stream = new FileInputStream(file)) {
+                json = readJson(stream, client);
+            }
             builder.operations(o -> o
                     .index(i -> i.index(index)
                             .id(json.toJson().asJsonObject().getString("id"))
                             .document(json)));
         }
-        return client.bulk(builder.build());
+        return bulk(builder.build());
     }
 
     /**
@@ -359,7 +690,66 @@ public class ElasticsearchBaseClient<T extends BaseT> {
                             .id(json.toJson().asJsonObject().getString("id"))
                             .document(json)));
         });
-        return client.bulk(builder.build());
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc by list<json> without parsing it.
+     * The json is sent as it is, the id is read by a token scan without building the document.
+     * A json with line breaks is parsed and written on one line, other json is not checked,
+     * an invalid document fails in its bulk item
+     *
+     * @param index index
+     * @param jsons json list
+     * @return BulkResponse
+     * @throws IOException
+     */
+    public BulkResponse saveOrUpdateDocBulkWithRawJson(String index, List<String> jsons) throws IOException {
+        if (null == jsons || jsons.isEmpty()) {
+            throw new IOException("jsons cannot be empty！");
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        for (String a : jsons) {
+            byte[] json = a.getBytes(StandardCharsets.UTF_8);
+            addRawIndexOperation(builder, index, readId(json), json);
+        }
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc by map<id, json> without parsing it, see saveOrUpdateDocBulkWithRawJson(String, List)
+     *
+     * @param index index
+     * @param jsons map, key: doc id, value: json
+     * @return BulkResponse
+     * @throws IOException
+     */
+    public BulkResponse saveOrUpdateDocBulkWithRawJson(String index, Map<String, String> jsons) throws IOException {
+        if (null == jsons || jsons.isEmpty()) {
+            throw new IOException("jsons cannot be empty！");
+        }
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        for (Map.Entry<String, String> entry : jsons.entrySet()) {
+            addRawIndexOperation(builder, index, entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        return bulk(builder.build());
+    }
+
+    /**
+     * add index operation with raw json, written on one line
+     *
+     * @param builder BulkRequest.Builder
+     * @param index   index
+     * @param id      doc id
+     * @param json    json bytes
+     * @throws IOException
+     */
+    private void addRawIndexOperation(BulkRequest.Builder builder, String index, String id, byte[] json) throws IOException {
+        RawJsonData document = new RawJsonData(toSingleLine(json));
+        builder.operations(o -> o
+                .index(i -> i.index(index)
+                        .id(id)
+                        .document(document)));
     }
 
     /**
@@ -381,116 +771,676 @@ public class ElasticsearchBaseClient<T extends BaseT> {
                     .id(t.getId())
                     .document(t)));
         });
-        return client.bulk(builder.build());
+        return bulk(builder.build());
+    }
+
+    /**
+     * save or update doc by List<T>, rejected items are retried
+     *
+     * @param index      index
+     * @param list       list T
+     * @param maxRetries retry budget, the number of retry rounds
+     * @return BulkResult
+     * @throws IOException
+     */
+    public BulkResult saveOrUpdateDocBulkWithRetry(String index, List<T> list, int maxRetries) throws IOException {
+        if (null == list || list.isEmpty()) {
+            throw new IOException("list cannot be empty！");
+        }
+        List<BulkOperation> operations = new ArrayList<>(list.size());
+        list.stream().forEach(t -> {
+            operations.add(BulkOperation.of(o -> o.index(i -> i
+                    .index(index)
+                    .id(t.getId())
+                    .document(t))));
+        });
+        return bulkWithRetry(operations, maxRetries, DEFAULT_BACKOFF);
+    }
+
+    /**
+     * execute bulk operations, retry only the items rejected by the cluster.
+     * Items with status 429, 503 or es_rejected_execution_exception are sent again
+     * after an exponential backoff with full jitter, until maxRetries rounds are used.
+     * A create conflict is reported as existed, other errors fail at once.
+     *
+     * @param operations     operations
+     * @param maxRetries     retry budget, the number of retry rounds
+     * @param initialBackoff backoff of the first retry, milliseconds, doubled every round
+     * @return BulkResult
+     * @throws IOException
+     */
+    public BulkResult bulkWithRetry(List<BulkOperation> operations, int maxRetries, long initialBackoff) throws IOException {
+        BulkResult result = new BulkResult();
+        Set<String> retried = new LinkedHashSet<>();
+        List<BulkOperation> pending = operations;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<BulkOperation> retry = new ArrayList<>();
+            boolean canRetry = attempt < maxRetries;
+            List<BulkOperation> batch = pending;
+            try {
+                List<BulkResponseItem> items;
+                try {
+                    items = client.bulk(b -> b.operations(batch)).items();
+                } finally {
+                    afterWrite(batch);
+                }
+                for (int i = 0; i < items.size(); i++) {
+                    BulkResponseItem item = items.get(i);
+                    if (item.error() == null) {
+                        result.getSucceeded().add(item.id());
+                    } else if (item.status() == CONFLICT && batch.get(i).isCreate()) {
+                        result.getExisted().add(item.id());
+                    } else if (canRetry && isRetryable(item.status(), item.error().type())) {
+                        retry.add(batch.get(i));
+                    } else {
+                        result.getFailed().put(item.id(), item.error().type() + ": " + item.error().reason());
+                    }
+                }
+            } catch (ElasticsearchException e) {
+                if (!isRetryable(e.status(), e.error().type())) {
+                    throw e;
+                }
+                if (canRetry) {
+                    retry.addAll(batch);
+                } else {
+                    batch.stream().forEach(o -> result.getFailed().put(getId(o), e.error().type() + ": " + e.error().reason()));
+                }
+            }
+            if (!retry.isEmpty()) {
+                retry.stream().forEach(o -> retried.add(getId(o)));
+                sleep(backoff(initialBackoff, attempt));
+            }
+            pending = retry;
+        }
+        result.getRetried().addAll(retried);
+        return result;
+    }
+
+    /**
+     * check if the bulk item or request was rejected and can be retried
+     *
+     * @param status status
+     * @param type   error type
+     * @return boolean
+     */
+    private static boolean isRetryable(int status, String type) {
+        return status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE || REJECTED_EXECUTION.equals(type);
+    }
+
+    /**
+     * exponential backoff with full jitter
+     *
+     * @param initialBackoff initial backoff, milliseconds
+     * @param attempt        attempt, from 0
+     * @return long, milliseconds
+     */
+    private static long backoff(long initialBackoff, int attempt) {
+        long max = Math.min(MAX_BACKOFF, initialBackoff << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    /**
+     * wait for future
+     *
+     * @param future CompletableFuture
+     * @return R
+     * @throws IOException
+     */
+    private static <R> R await(CompletableFuture<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for response！");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * sleep
+     *
+     * @param millis milliseconds
+     * @throws IOException
+     */
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for retry！");
+        }
+    }
+
+    /**
+     * get searchResponse
+     *
+     * @param index index
+     * @param json  json
+     * @return SearchResponse
+     * @throws IOException
+     */
+    private SearchResponse<Void> getSearchResponse(String index, String json, PageRequest pageRequest) throws IOException {
+        return client.search(getSearchRequest(index, json, pageRequest), Void.class);
+    }
+
+    /**
+     * get searchResponse by json
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @param clazz       class
+     * @return SearchResponse<T>
+     * @throws IOException
+     */
+    public SearchResponse<T> getSearchResponse(String index, String json, PageRequest pageRequest, Class<T> clazz) throws IOException {
+        return client.search(getSearchRequest(index, json, pageRequest), clazz);
+    }
+
+    /**
+     * get searchRequest by json
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @return SearchRequest
+     */
+    public SearchRequest getSearchRequest(String index, String json, PageRequest pageRequest) {
+        return getSearchRequest(index, json, pageRequest, null, null);
+    }
+
+    /**
+     * get searchRequest by json with source filtering, the filter replaces _source of the json
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @param includes    source includes, nullable
+     * @param excludes    source excludes, nullable
+     * @return SearchRequest
+     */
+    public SearchRequest getSearchRequest(String index, String json, PageRequest pageRequest,
+                                          List<String> includes, List<String> excludes) {
+        SourceConfig source = getSourceConfig(includes, excludes);
+        return SearchRequest.of(a -> {
+            a.index(index)
+                    .withJson(new StringReader(json))
+                    .ignoreUnavailable(true);
+            if (pageRequest != null) {
+                a.size(getPageSize(pageRequest)).from(getFrom(pageRequest));
+            }
+            if (source != null) {
+                a.source(source);
+            }
+            return a;
+        });
+    }
+
+    /**
+     * get page size of the page request, PAGE_SIZE if it is not positive
+     *
+     * @param pageRequest pageRequest
+     * @return int
+     */
+    static int getPageSize(PageRequest pageRequest) {
+        return pageRequest.getPageSize() <= 0 ? PAGE_SIZE : pageRequest.getPageSize();
+    }
+
+    /**
+     * get from of the page request, page numbers start at PAGE_ONE
+     *
+     * @param pageRequest pageRequest
+     * @return int
+     */
+    static int getFrom(PageRequest pageRequest) {
+        int pageNumber = pageRequest.getPageNumber() <= 0 ? PAGE_ONE : pageRequest.getPageNumber();
+        return getPageSize(pageRequest) * (pageNumber - 1);
+    }
+
+    /**
+     * get source config of includes and excludes
+     *
+     * @param includes source includes, nullable
+     * @param excludes source excludes, nullable
+     * @return SourceConfig, null if both are empty
+     */
+    private static SourceConfig getSourceConfig(List<String> includes, List<String> excludes) {
+        boolean hasIncludes = null != includes && !includes.isEmpty();
+        boolean hasExcludes = null != excludes && !excludes.isEmpty();
+        if (!hasIncludes && !hasExcludes) {
+            return null;
+        }
+        return SourceConfig.of(s -> s.filter(f -> {
+            if (hasIncludes) {
+                f.includes(includes);
+            }
+            if (hasExcludes) {
+                f.excludes(excludes);
+            }
+            return f;
+        }));
+    }
+
+    /**
+     * get the _source fields of a projection class, see ElasticsearchUtil.getSourceFields
+     *
+     * @param projection projection class
+     * @return List<String>
+     * @throws IOException
+     */
+    public List<String> getProjectionFields(Class<?> projection) throws IOException {
+        List<String> fields = projectionFields.computeIfAbsent(projection,
+                a -> Collections.unmodifiableList(getSourceFields(a, transport.jsonpMapper())));
+        if (fields.isEmpty()) {
+            throw new IOException("projection has no fields！");
+        }
+        return fields;
+    }
+
+    /**
+     * is coalescing of the method on
+     *
+     * @param method method, see ElasticsearchSingleFlight.METHODS
+     * @return boolean
+     */
+    private boolean isSingleFlight(String method) {
+        ElasticsearchSingleFlight flight = singleFlight;
+        return flight != null && flight.isEnabled(method);
+    }
+
+    /**
+     * wrap a query so that identical calls in flight share it, if coalescing of the method is on
+     *
+     * @param method method, see ElasticsearchSingleFlight.METHODS
+     * @param key    normalized request
+     * @param loader query
+     * @return Loader<R>
+     */
+    private <R> ElasticsearchQueryCache.Loader<R> coalesce(String method, String key, ElasticsearchQueryCache.Loader<R> loader) {
+        ElasticsearchSingleFlight flight = singleFlight;
+        if (flight == null || !flight.isEnabled(method)) {
+            return loader;
+        }
+        return () -> flight.execute(method + '|' + key, loader);
+    }
+
+    /**
+     * get query cache key, the source filter is part of the key
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @param includes    source includes, nullable
+     * @param excludes    source excludes, nullable
+     * @param clazz       class
+     * @return String
+     * @throws IOException
+     */
+    private static String getCacheKey(String index, String json, PageRequest pageRequest, List<String> includes,
+                                      List<String> excludes, Class<?> clazz) throws IOException {
+        String key = ElasticsearchQueryCache.key(index, json, pageRequest, clazz);
+        if (getSourceConfig(includes, excludes) == null) {
+            return key;
+        }
+        return key + '|' + includes + '|' + excludes;
+    }
+
+    /**
+     * query by id
+     *
+     * @param index index
+     * @param id    id
+     * @param clazz class
+     * @return T
+     * @throws IOException
+     */
+    public T queryById(String index, String id, Class<T> clazz) throws IOException {
+        ElasticsearchNearCache near = nearCache;
+        if (near == null && !isSingleFlight(ElasticsearchSingleFlight.QUERY_BY_ID)) {
+            return queryByIdUncached(index, id, clazz);
+        }
+        // the _source is shared as bytes, every caller decodes it into its own object of its own class
+        ElasticsearchQueryCache.Loader<byte[]> loader = coalesce(ElasticsearchSingleFlight.QUERY_BY_ID,
+                index + '|' + id, () -> queryRawById(index, id));
+        if (near != null) {
+            return near.get(index, id, clazz, loader);
+        }
+        byte[] source = loader.load();
+        return source == null ? null : decode(new RawJsonData(source), clazz);
+    }
+
+    private byte[] queryRawById(String index, String id) throws IOException {
+        GetResponse<RawJsonData> response = client.get(g -> g
+                .index(index)
+                .id(id), RawJsonData.class);
+        if (response.found()) {
+            return response.source().getBytes();
+        }
+        return null;
+    }
+
+    private T queryByIdUncached(String index, String id, Class<T> clazz) throws IOException {
+        GetResponse<T> response = client.get(g -> g
+                .index(index)
+                .id(id), clazz);
+        if (response.found()) {
+            return response.source();
+        }
+        return null;
+    }
+
+    /**
+     * query by ids with _mget, ids are sent in chunks of 1000
+     *
+     * @param index index
+     * @param ids   ids
+     * @param clazz class
+     * @return MgetResult<T>，found docs keep the order of the ids
+     * @throws IOException
+     */
+    public MgetResult<T> queryByIds(String index, List<String> ids, Class<T> clazz) throws IOException {
+        return queryByIds(index, ids, null, null, clazz);
+    }
+
+    /**
+     * query by ids with _mget and source filtering, ids are sent in chunks of 1000
+     *
+     * @param index    index
+     * @param ids      ids
+     * @param includes source includes, nullable
+     * @param excludes source excludes, nullable
+     * @param clazz    class
+     * @return MgetResult<T>，found docs keep the order of the ids
+     * @throws IOException
+     */
+    public MgetResult<T> queryByIds(String index, List<String> ids, List<String> includes, List<String> excludes,
+                                    Class<T> clazz) throws IOException {
+        if (null == ids || ids.isEmpty()) {
+            throw new IOException("ids cannot be empty！");
+        }
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, T> docs = new HashMap<>(distinct.size() * 2);
+        MgetResult<T> result = new MgetResult<>();
+        for (int from = 0; from < distinct.size(); from += MGET_CHUNK_SIZE) {
+            List<String> chunk = distinct.subList(from, Math.min(from + MGET_CHUNK_SIZE, distinct.size()));
+            MgetResponse<T> response = client.mget(m -> {
+                m.index(index).ids(chunk);
+                if (null != includes && !includes.isEmpty()) {
+                    m.sourceIncludes(includes);
+                }
+                if (null != excludes && !excludes.isEmpty()) {
+                    m.sourceExcludes(excludes);
+                }
+                return m;
+            }, clazz);
+            response.docs().stream().forEach(a -> {
+                if (a.isFailure()) {
+                    result.getFailed().put(a.failure().id(), a.failure().error().reason());
+                } else if (a.result().found()) {
+                    docs.put(a.result().id(), a.result().source());
+                } else {
+                    result.getMissing().add(a.result().id());
+                }
+            });
+        }
+        ids.stream().filter(docs::containsKey).forEach(a -> result.getFound().add(docs.get(a)));
+        return result;
+    }
+
+    /**
+     * query by keyword simple match
+     *
+     * @param index   index
+     * @param field   field
+     * @param keyword keyword
+     * @param clazz   class
+     * @return List<T>
+     * @throws IOException
+     */
+    public List<T> queryByKeywordSimple(String index, String field, String keyword, Class<T> clazz) throws IOException {
+        return queryByKeywordSimple(index, field, keyword, null, null, clazz);
+    }
+
+    /**
+     * query by keyword simple match with source filtering
+     *
+     * @param index    index
+     * @param field    field
+     * @param keyword  keyword
+     * @param includes source includes, nullable
+     * @param excludes source excludes, nullable
+     * @param clazz    class
+     * @return List<T>
+     * @throws IOException
+     */
+    public List<T> queryByKeywordSimple(String index, String field, String keyword, List<String> includes,
+                                        List<String> excludes, Class<T> clazz) throws IOException {
+        SourceConfig source = getSourceConfig(includes, excludes);
+        SearchResponse<T> response = client.search(s -> {
+            s.index(index)
+                    .query(q -> q.match(t -> t
+                            .field(field)
+                            .query(keyword)));
+            if (source != null) {
+                s.source(source);
+            }
+            return s;
+        }, clazz);
+        List<T> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return list;
     }
 
     /**
-     * get searchResponse
+     * query by json
      *
      * @param index index
      * @param json  json
-     * @return SearchResponse
+     * @param clazz class
+     * @return List<T>
      * @throws IOException
      */
-    private SearchResponse<Void> getSearchResponse(String index, String json, PageRequest pageRequest) throws IOException {
-        return client.search(getSearchRequest(index, json, pageRequest), Void.class);
+    public List<T> queryByJson(String index, String json, Class<T> clazz) throws IOException {
+        return queryByJson(index, json, null, null, clazz);
     }
 
     /**
-     * get searchResponse by json
+     * query by json with source filtering, only the included fields are fetched and decoded
      *
-     * @param index       index
-     * @param json        json
-     * @param pageRequest pageRequest, nullable
-     * @param clazz       class
-     * @return SearchResponse<T>
+     * @param index    index
+     * @param json     json
+     * @param includes source includes, nullable
+     * @param excludes source excludes, nullable
+     * @param clazz    class
+     * @return List<T>
      * @throws IOException
      */
-    public SearchResponse<T> getSearchResponse(String index, String json, PageRequest pageRequest, Class<T> clazz) throws IOException {
-        return client.search(getSearchRequest(index, json, pageRequest), clazz);
+    public List<T> queryByJson(String index, String json, List<String> includes, List<String> excludes,
+                               Class<T> clazz) throws IOException {
+        return search(index, json, includes, excludes, clazz);
     }
 
     /**
-     * get searchRequest by json
+     * query by json into a projection class, only the fields of the projection are fetched and decoded
      *
-     * @param index       index
-     * @param json        json
-     * @param pageRequest pageRequest, nullable
-     * @return SearchRequest
+     * @param index      index
+     * @param json       json
+     * @param projection projection class
+     * @return List<R>
+     * @throws IOException
      */
-    public SearchRequest getSearchRequest(String index, String json, PageRequest pageRequest) {
-        if (pageRequest == null) {
-            return SearchRequest.of(a -> a
+    public <R> List<R> queryByJsonWithProjection(String index, String json, Class<R> projection) throws IOException {
+        return search(index, json, getProjectionFields(projection), null, projection);
+    }
+
+    private <R> List<R> search(String index, String json, List<String> includes, List<String> excludes,
+                               Class<R> clazz) throws IOException {
+        ElasticsearchQueryCache cache = queryCache;
+        if (cache == null && !isSingleFlight(ElasticsearchSingleFlight.QUERY_BY_JSON)) {
+            return searchUncached(index, json, includes, excludes, clazz);
+        }
+        String key = getCacheKey(index, json, null, includes, excludes, clazz);
+        ElasticsearchQueryCache.Loader<List<RawJsonData>> loader = coalesce(ElasticsearchSingleFlight.QUERY_BY_JSON, key,
+                () -> getSources(client.search(getSearchRequest(index, json, null, includes, excludes), RawJsonData.class)));
+        // hits are shared as bytes, every caller decodes its own objects
+        List<RawJsonData> sources = cache == null ? loader.load() : cache.get(index, key, loader);
+        List<R> list = new ArrayList<>(sources.size());
+        sources.forEach(a -> list.add(decode(a, clazz)));
+        return list;
+    }
+
+    private <R> List<R> searchUncached(String index, String json, List<String> includes, List<String> excludes,
+                                       Class<R> clazz) throws IOException {
+        SearchResponse<R> response = client.search(getSearchRequest(index, json, null, includes, excludes), clazz);
+        List<R> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return list;
+    }
+
+    /**
+     * count docs of the json query with _count, no hit is fetched.
+     * Only the query of the json is used, a json with runtime_mappings is counted by a search with size 0
+     *
+     * @param index index
+     * @param json  json, nullable for match_all
+     * @return long
+     * @throws IOException
+     */
+    public long count(String index, String json) throws IOException {
+        SearchRequest template = ElasticsearchSearchAfterIterator.parse(json);
+        if (!template.runtimeMappings().isEmpty()) {
+            return client.search(s -> s
                     .index(index)
-                    .withJson(new StringReader(json))
                     .ignoreUnavailable(true)
-            );
+                    .size(0)
+                    .trackTotalHits(t -> t.enabled(true))
+                    .query(template.query())
+                    .runtimeMappings(template.runtimeMappings()), Void.class).hits().total().value();
         }
-        int pageSize = pageRequest.getPageSize() <= 0 ? PAGE_SIZE : pageRequest.getPageSize();
-        int pageNumber = pageRequest.getPageNumber() <= 0 ? PAGE_ONE : pageRequest.getPageNumber();
-        int fromNum = pageSize * (pageNumber - 1);
-        return SearchRequest.of(a -> a
+        return client.count(c -> c
                 .index(index)
-                .withJson(new StringReader(json))
                 .ignoreUnavailable(true)
-                .size(pageSize)
-                .from(fromNum));
+                .query(template.query())).count();
     }
 
     /**
-     * query by id
+     * check whether any doc matches the json query.
+     * Every shard stops at the first match and no hit is fetched,
+     * total hits are tracked up to 1 only, that is the answer
      *
      * @param index index
-     * @param id    id
-     * @param clazz class
-     * @return T
+     * @param json  json, nullable for match_all
+     * @return boolean
      * @throws IOException
      */
-    public T queryById(String index, String id, Class<T> clazz) throws IOException {
-        GetResponse<T> response = client.get(g -> g
-                .index(index)
-                .id(id), clazz);
-        if (response.found()) {
-            return response.source();
-        }
-        return null;
+    public boolean existsByQuery(String index, String json) throws IOException {
+        SearchRequest template = ElasticsearchSearchAfterIterator.parse(json);
+        SearchResponse<Void> response = client.search(s -> {
+            s.index(index)
+                    .ignoreUnavailable(true)
+                    .size(0)
+                    .terminateAfter(1L)
+                    .trackTotalHits(t -> t.count(1))
+                    .source(c -> c.fetch(false))
+                    .query(template.query());
+            if (!template.runtimeMappings().isEmpty()) {
+                s.runtimeMappings(template.runtimeMappings());
+            }
+            return s;
+        }, Void.class);
+        return response.hits().total() != null && response.hits().total().value() > 0;
     }
 
     /**
-     * query by keyword simple match
+     * query by json and pass every hit to the consumer as soon as it is decoded.
+     * The response body is parsed while it arrives, neither the body, a response object nor a list of all hits
+     * is kept, memory is bounded by a 64k buffer plus one hit. A consumer slower than the socket timeout fails the request.
+     * Exceptions of the consumer are thrown as they are and cancel the request,
+     * an interrupt of the calling thread cancels it too and is thrown as InterruptedIOException.
      *
-     * @param index   index
-     * @param field   field
-     * @param keyword keyword
-     * @param clazz   class
-     * @return List<T>
+     * @param index    index
+     * @param json     json
+     * @param clazz    class
+     * @param consumer Consumer<T>, called on the calling thread in the order of the hits
+     * @return long, number of hits
      * @throws IOException
      */
-    public List<T> queryByKeywordSimple(String index, String field, String keyword, Class<T> clazz) throws IOException {
-        SearchResponse<T> response = client.search(s -> s
-                .index(index)
-                .query(q -> q.match(t -> t
-                        .field(field)
-                        .query(keyword))), clazz);
-        List<T> list = new ArrayList<>();
-        response.hits().hits().stream().forEach(t -> list.add(t.source()));
-        return list;
+    public long queryByJsonWithConsumer(String index, String json, Class<T> clazz, Consumer<T> consumer) throws IOException {
+        JsonpMapper mapper = transport.jsonpMapper();
+        Request request = new Request("POST", "/" + index + "/_search");
+        request.addParameter("ignore_unavailable", "true");
+        request.setEntity(new NByteArrayEntity(toJsonBytes(getSearchRequest(index, json, null), mapper), ContentType.APPLICATION_JSON));
+        try (InputStream input = ElasticsearchResponseStream.open(transport.restClient(), request);
+             JsonParser parser = mapper.jsonProvider().createParser(input)) {
+            return readHits(parser, mapper, clazz, consumer);
+        } catch (JsonException e) {
+            // errors of the stream, e.g. an interrupt or a failed request, are wrapped by the parser
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("search response cannot be read！", e);
+        }
     }
 
     /**
-     * query by json
+     * read hits.hits of a search response, other fields are skipped
      *
-     * @param index index
-     * @param json  json
-     * @param clazz class
-     * @return List<T>
-     * @throws IOException
+     * @param parser   JsonParser
+     * @param mapper   JsonpMapper
+     * @param clazz    class of _source
+     * @param consumer consumer
+     * @return long, number of hits
      */
-    public List<T> queryByJson(String index, String json, Class<T> clazz) throws IOException {
-        SearchResponse<T> response = getSearchResponse(index, json, null, clazz);
-        List<T> list = new ArrayList<>();
-        response.hits().hits().stream().forEach(t -> list.add(t.source()));
-        return list;
+    private static <R> long readHits(JsonParser parser, JsonpMapper mapper, Class<R> clazz, Consumer<R> consumer) {
+        long count = 0;
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new JsonParsingException("search response must be an object！", parser.getLocation());
+        }
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String name = parser.getString();
+            JsonParser.Event event = parser.next();
+            if (!"hits".equals(name) || event != JsonParser.Event.START_OBJECT) {
+                skip(parser, event);
+                continue;
+            }
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String hitsName = parser.getString();
+                JsonParser.Event hitsEvent = parser.next();
+                if (!"hits".equals(hitsName) || hitsEvent != JsonParser.Event.START_ARRAY) {
+                    skip(parser, hitsEvent);
+                    continue;
+                }
+                while (parser.next() == JsonParser.Event.START_OBJECT) {
+                    R source = null;
+                    while (parser.next() == JsonParser.Event.KEY_NAME) {
+                        if ("_source".equals(parser.getString())) {
+                            source = mapper.deserialize(parser, clazz);
+                        } else {
+                            skip(parser, parser.next());
+                        }
+                    }
+                    consumer.accept(source);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void skip(JsonParser parser, JsonParser.Event event) {
+        if (event == JsonParser.Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (event == JsonParser.Event.START_ARRAY) {
+            parser.skipArray();
+        }
     }
 
     /**
@@ -519,8 +1469,92 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      * @throws IOException
      */
     public Page<T> queryByJsonWithPage(String index, String json, PageRequest pageRequest, Class<T> clazz) throws IOException {
-        SearchResponse<T> response = getSearchResponse(index, json, pageRequest, clazz);
-        List<T> list = new ArrayList<>();
+        return queryByJsonWithPage(index, json, pageRequest, null, null, clazz);
+    }
+
+    /**
+     * query by json with page and source filtering, only the included fields are fetched and decoded
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest
+     * @param includes    source includes, nullable
+     * @param excludes    source excludes, nullable
+     * @param clazz       class
+     * @return Page<T>
+     * @throws IOException
+     */
+    public Page<T> queryByJsonWithPage(String index, String json, PageRequest pageRequest, List<String> includes,
+                                       List<String> excludes, Class<T> clazz) throws IOException {
+        return searchWithPage(index, json, pageRequest, includes, excludes, clazz);
+    }
+
+    /**
+     * query by json with page into a projection class, only the fields of the projection are fetched and decoded
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest
+     * @param projection  projection class
+     * @return Page<R>
+     * @throws IOException
+     */
+    public <R> Page<R> queryByJsonWithProjection(String index, String json, PageRequest pageRequest,
+                                                 Class<R> projection) throws IOException {
+        return searchWithPage(index, json, pageRequest, getProjectionFields(projection), null, projection);
+    }
+
+    private <R> Page<R> searchWithPage(String index, String json, PageRequest pageRequest, List<String> includes,
+                                       List<String> excludes, Class<R> clazz) throws IOException {
+        ElasticsearchQueryCache cache = queryCache;
+        if (cache == null && !isSingleFlight(ElasticsearchSingleFlight.QUERY_BY_JSON_WITH_PAGE)) {
+            return searchWithPageUncached(index, json, pageRequest, includes, excludes, clazz);
+        }
+        String key = getCacheKey(index, json, pageRequest, includes, excludes, clazz);
+        ElasticsearchQueryCache.Loader<Page<RawJsonData>> loader = coalesce(ElasticsearchSingleFlight.QUERY_BY_JSON_WITH_PAGE, key,
+                () -> {
+                    SearchResponse<RawJsonData> response = client.search(
+                            getSearchRequest(index, json, pageRequest, includes, excludes), RawJsonData.class);
+                    return new PageImpl<>(getSources(response), pageRequest, response.hits().total().value());
+                });
+        // hits are shared as bytes, every caller decodes its own objects
+        Page<RawJsonData> page = cache == null ? loader.load() : cache.get(index, key, loader);
+        return page.map(a -> decode(a, clazz));
+    }
+
+    /**
+     * _source of the hits, null for hits without _source
+     *
+     * @param response SearchResponse
+     * @return List<RawJsonData>, unmodifiable
+     */
+    private static List<RawJsonData> getSources(SearchResponse<RawJsonData> response) {
+        List<RawJsonData> sources = new ArrayList<>(response.hits().hits().size());
+        response.hits().hits().forEach(t -> sources.add(t.source()));
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * decode a _source into a new object
+     *
+     * @param source _source, nullable
+     * @param clazz  class
+     * @return R
+     */
+    private <R> R decode(RawJsonData source, Class<R> clazz) {
+        if (source == null) {
+            return null;
+        }
+        JsonpMapper mapper = transport.jsonpMapper();
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(source.getBytes()))) {
+            return mapper.deserialize(parser, clazz);
+        }
+    }
+
+    private <R> Page<R> searchWithPageUncached(String index, String json, PageRequest pageRequest, List<String> includes,
+                                               List<String> excludes, Class<R> clazz) throws IOException {
+        SearchResponse<R> response = client.search(getSearchRequest(index, json, pageRequest, includes, excludes), clazz);
+        List<R> list = new ArrayList<>();
         response.hits().hits().stream().forEach(t -> list.add(t.source()));
         return new PageImpl<>(list, pageRequest, response.hits().total().value());
     }
@@ -541,6 +1575,57 @@ public class ElasticsearchBaseClient<T extends BaseT> {
         return queryByJsonWithPage(index, json, pageRequest, clazz);
     }
 
+    /**
+     * query by json with a lazy page, total hits are not counted
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest
+     * @param clazz       class
+     * @return ElasticsearchLazyPage<T>
+     * @throws IOException
+     */
+    public ElasticsearchLazyPage<T> queryByJsonWithLazyPage(String index, String json, PageRequest pageRequest, Class<T> clazz) throws IOException {
+        return queryByJsonWithLazyPage(index, json, pageRequest, 0, clazz);
+    }
+
+    /**
+     * query by json with a lazy page, hits are decoded when accessed, see ElasticsearchLazyPage
+     *
+     * @param index              index
+     * @param json               json
+     * @param pageRequest        pageRequest
+     * @param trackTotalHitsUpTo 0 turns off total counting, otherwise hits are counted up to this value,
+     *                           Integer.MAX_VALUE counts exactly
+     * @param clazz              class
+     * @return ElasticsearchLazyPage<T>
+     * @throws IOException
+     */
+    public ElasticsearchLazyPage<T> queryByJsonWithLazyPage(String index, String json, PageRequest pageRequest,
+                                                            int trackTotalHitsUpTo, Class<T> clazz) throws IOException {
+        if (trackTotalHitsUpTo < 0) {
+            throw new IOException("trackTotalHitsUpTo cannot be negative！");
+        }
+        int pageSize = getPageSize(pageRequest);
+        int fromNum = getFrom(pageRequest);
+        SearchResponse<RawJsonData> response = client.search(s -> s
+                .index(index)
+                .withJson(new StringReader(json))
+                .ignoreUnavailable(true)
+                .size(pageSize + 1)
+                .from(fromNum)
+                .trackTotalHits(t -> trackTotalHitsUpTo > 0 ? t.count(trackTotalHitsUpTo) : t.enabled(false)), RawJsonData.class);
+        List<Hit<RawJsonData>> hits = response.hits().hits();
+        List<RawJsonData> sources = new ArrayList<>(Math.min(hits.size(), pageSize));
+        hits.stream().limit(pageSize).forEach(t -> sources.add(t.source()));
+        TotalHits total = response.hits().total();
+        return new ElasticsearchLazyPage<>(sources, pageRequest, pageSize, fromNum,
+                total == null ? 0 : total.value(),
+                total != null && total.relation() == TotalHitsRelation.Eq,
+                hits.size() > pageSize,
+                transport.jsonpMapper(), clazz);
+    }
+
     /**
      * query fields by json with page
      * notice: Json must specify the fields to be returned
@@ -572,6 +1657,119 @@ public class ElasticsearchBaseClient<T extends BaseT> {
         return queryFieldsByJsonWithPage(index, json, pageRequest);
     }
 
+    /**
+     * query by json with stream, backed by point in time and search_after.
+     * Pages are fetched lazily, close the stream to release the point in time early
+     *
+     * @param index index
+     * @param json  json, nullable for match_all
+     * @param clazz class
+     * @return Stream<T>
+     * @throws IOException
+     */
+    public Stream<T> queryByJsonWithStream(String index, String json, Class<T> clazz) throws IOException {
+        return queryByJsonWithIterator(index, json, STREAM_PAGE_SIZE, clazz).stream();
+    }
+
+    /**
+     * query by json with stream, backed by point in time and search_after
+     *
+     * @param index    index
+     * @param json     json, nullable for match_all
+     * @param pageSize hits per request
+     * @param clazz    class
+     * @return Stream<T>
+     * @throws IOException
+     */
+    public Stream<T> queryByJsonWithStream(String index, String json, int pageSize, Class<T> clazz) throws IOException {
+        return queryByJsonWithIterator(index, json, pageSize, clazz).stream();
+    }
+
+    /**
+     * query by json with iterator, backed by point in time and search_after
+     *
+     * @param index    index
+     * @param json     json, nullable for match_all
+     * @param pageSize hits per request
+     * @param clazz    class
+     * @return ElasticsearchSearchAfterIterator<T>
+     * @throws IOException
+     */
+    public ElasticsearchSearchAfterIterator<T> queryByJsonWithIterator(String index, String json, int pageSize, Class<T> clazz) throws IOException {
+        return ElasticsearchSearchAfterIterator.open(client, index, json, pageSize, clazz);
+    }
+
+    /**
+     * get compiled query template by key, the json is compiled on the first call of the key only.
+     * At most 256 templates are kept, the least recently used is dropped
+     *
+     * @param key  template key
+     * @param json json with placeholders, e.g. {"query": {"term": {"brand": "{{brand}}"}}}
+     * @return ElasticsearchQueryTemplate
+     * @throws IOException
+     */
+    public ElasticsearchQueryTemplate getQueryTemplate(String key, String json) throws IOException {
+        synchronized (queryTemplates) {
+            ElasticsearchQueryTemplate template = queryTemplates.get(key);
+            if (template != null) {
+                return template;
+            }
+        }
+        ElasticsearchQueryTemplate template = ElasticsearchQueryTemplate.compile(json);
+        synchronized (queryTemplates) {
+            ElasticsearchQueryTemplate old = queryTemplates.putIfAbsent(key, template);
+            return old == null ? template : old;
+        }
+    }
+
+    /**
+     * query by compiled json
+     *
+     * @param index  index
+     * @param key    template key
+     * @param json   json with placeholders, compiled on the first call of the key
+     * @param params parameter values by placeholder name
+     * @param clazz  class
+     * @return List<T>
+     * @throws IOException
+     */
+    public List<T> queryByCompiledJson(String index, String key, String json, Map<String, ?> params, Class<T> clazz) throws IOException {
+        SearchResponse<T> response = client.search(getQueryTemplate(key, json).bind(index, params, null), clazz);
+        List<T> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return list;
+    }
+
+    /**
+     * query by compiled json with page
+     *
+     * @param index       index
+     * @param key         template key
+     * @param json        json with placeholders, compiled on the first call of the key
+     * @param params      parameter values by placeholder name
+     * @param pageRequest pageRequest
+     * @param clazz       class
+     * @return Page<T>
+     * @throws IOException
+     */
+    public Page<T> queryByCompiledJsonWithPage(String index, String key, String json, Map<String, ?> params,
+                                               PageRequest pageRequest, Class<T> clazz) throws IOException {
+        SearchResponse<T> response = client.search(getQueryTemplate(key, json).bind(index, params, pageRequest), clazz);
+        List<T> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return new PageImpl<>(list, pageRequest, response.hits().total().value());
+    }
+
+    /**
+     * create multi search, queries registered on it are sent as one _msearch
+     *
+     * @param clazz class of the hits
+     * @return ElasticsearchMultiSearch<T>
+     */
+    public ElasticsearchMultiSearch<T> multiSearch(Class<T> clazz) {
+        return new ElasticsearchMultiSearch<>(this, clazz);
+    }
+
     /**
      * get stringTermsBucket by json
      *
@@ -590,6 +1788,20 @@ public class ElasticsearchBaseClient<T extends BaseT> {
                 .array();
     }
 
+    /**
+     * get all buckets of a composite aggregation by json, paged lazily with after_key,
+     * see ElasticsearchCompositeIterator
+     *
+     * @param index           index
+     * @param aggregationJson json with a composite aggregation
+     * @param aggName         agg name
+     * @return Stream<CompositeBucket>
+     * @throws IOException
+     */
+    public Stream<CompositeBucket> getCompositeBucketByJson(String index, String aggregationJson, String aggName) throws IOException {
+        return new ElasticsearchCompositeIterator(client, index, aggregationJson, aggName).stream();
+    }
+
     /**
      * get suggestion sets by json
      *
@@ -612,6 +1824,35 @@ public class ElasticsearchBaseClient<T extends BaseT> {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * open a local prefix index of a completion field, loaded and refreshed in the background,
+     * see ElasticsearchLocalSuggester
+     *
+     * @param index           index
+     * @param field           completion field
+     * @param refreshInterval refresh interval, milliseconds
+     * @param maxEntries      max distinct inputs kept in memory
+     * @return ElasticsearchLocalSuggester, close it to stop the refresh
+     */
+    public ElasticsearchLocalSuggester openLocalSuggester(String index, String field, long refreshInterval, int maxEntries) {
+        return openLocalSuggester(index, field, field, refreshInterval, maxEntries);
+    }
+
+    /**
+     * open a local prefix index of a completion multi-field, the inputs are read from the source field
+     *
+     * @param index           index
+     * @param field           completion field
+     * @param sourceField     field of _source holding the inputs
+     * @param refreshInterval refresh interval, milliseconds
+     * @param maxEntries      max distinct inputs kept in memory
+     * @return ElasticsearchLocalSuggester, close it to stop the refresh
+     */
+    public ElasticsearchLocalSuggester openLocalSuggester(String index, String field, String sourceField,
+                                                         long refreshInterval, int maxEntries) {
+        return new ElasticsearchLocalSuggester(this, index, field, sourceField, refreshInterval, maxEntries).start();
+    }
+
     /**
      * get histogramBucket by json
      *
@@ -632,52 +1873,36 @@ public class ElasticsearchBaseClient<T extends BaseT> {
     }
 
     /**
-     * create script
+     * get stored script registry
      *
-     * @param scriptId     script id
-     * @param scriptSource script source, Content of source
-     * @param language     script language
-     * @param force        has force
-     * @throws IOException
+     * @return ElasticsearchScriptRegistry
      */
-    public void createQueryScript(String scriptId, String scriptSource, String language, boolean force) throws IOException {
-        if (hasScriptExist(scriptId)) {
-            if (force) {
-                deleteScriptById(scriptId);
-                createQueryScript(scriptId, scriptSource, language);
-            }
-        } else {
-            createQueryScript(scriptId, scriptSource, language);
-        }
+    public ElasticsearchScriptRegistry getScriptRegistry() {
+        return scriptRegistry;
     }
 
     /**
-     * create script
+     * create script, see ElasticsearchScriptRegistry.
+     * The cluster is checked once per script content, later calls with the same content send no request
      *
      * @param scriptId     script id
-     * @param scriptSource script template
-     * @param language     language
+     * @param scriptSource script source, Content of source
+     * @param language     script language
+     * @param force        has force, the script is put again only if it differs
      * @throws IOException
      */
-    private void createQueryScript(String scriptId, String scriptSource, String language) throws IOException {
+    public void createQueryScript(String scriptId, String scriptSource, String language, boolean force) throws IOException {
         if (language == null || language.isEmpty()) {
             language = DEFAULT_SCRIPT_LANG;
         }
-        String finalLanguage = language;
-        client.putScript(r -> r.id(scriptId)
-                .script(s -> s
-                        .lang(finalLanguage)
-                        .source(scriptSource)));
+        scriptRegistry.register(scriptId, scriptSource, language, force);
     }
 
     /**
-     * create simple script template
+     * create simple script template, checked against the cluster on first use only
      */
     private void createSimpleScriptTemplate() throws IOException {
-        if (!hasScriptExist(SIMPLE_SCRIPT_ID)) {
-            String scriptTemplate = "{\"query\":{\"match\":{\"{{field}}\":\"{{value}}\"}}}";
-            createQueryScript(SIMPLE_SCRIPT_ID, scriptTemplate, "mustache");
-        }
+        scriptRegistry.register(SIMPLE_SCRIPT_ID, SIMPLE_SCRIPT_TEMPLATE, SIMPLE_SCRIPT_LANG, true);
     }
 
     /**
@@ -700,11 +1925,7 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      * @throws IOException
      */
     public boolean deleteScriptById(String scriptId) throws IOException {
-        if (hasScriptExist(scriptId)) {
-            DeleteScriptResponse deleteScriptResponse = client.deleteScript(DeleteScriptRequest.of(a -> a.id(scriptId)));
-            return deleteScriptResponse.acknowledged();
-        }
-        return false;
+        return scriptRegistry.delete(scriptId);
     }
 
     /**
@@ -729,11 +1950,16 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      */
     public List<T> queryBySimpleTemplate(String index, String field, String value, Class<T> clazz) throws IOException {
         createSimpleScriptTemplate();
-        return queryByScriptTemplate(a -> a
-                .index(index)
-                .id(SIMPLE_SCRIPT_ID)
-                .params("field", JsonData.of(field))
-                .params("value", JsonData.of(value)), clazz);
+        try {
+            return queryByScriptTemplate(a -> a
+                    .index(index)
+                    .id(SIMPLE_SCRIPT_ID)
+                    .params("field", JsonData.of(field))
+                    .params("value", JsonData.of(value)), clazz);
+        } catch (ElasticsearchException e) {
+            scriptRegistry.forget(SIMPLE_SCRIPT_ID);
+            throw e;
+        }
     }
 
     /**
@@ -763,9 +1989,14 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      * @throws IOException
      */
     public List<T> queryByScriptTemplate(String index, String scriptId, Map<String, JsonData> map, Class<T> clazz) throws IOException {
-        return queryByScriptTemplate(s -> s.index(index)
-                .id(SIMPLE_SCRIPT_ID)
-                .params(map), clazz);
+        try {
+            return queryByScriptTemplate(s -> s.index(index)
+                    .id(scriptId)
+                    .params(map), clazz);
+        } catch (ElasticsearchException e) {
+            scriptRegistry.forget(scriptId);
+            throw e;
+        }
     }
 
     /**
@@ -814,7 +2045,11 @@ public class ElasticsearchBaseClient<T extends BaseT> {
      * @throws IOException
      */
     private UpdateByQueryResponse updateByQuery(String index, String json) throws IOException {
-        return client.updateByQuery(a -> a.index(index)
-                .withJson(new StringReader(json)));
+        try {
+            return client.updateByQuery(a -> a.index(index)
+                    .withJson(new StringReader(json)));
+        } finally {
+            afterWrite(index);
+        }
     }
 }
@@ -0,0 +1,423 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.JsonpMapper;
+import com.abasecode.opencode.es.entity.BaseT;
+import com.abasecode.opencode.es.util.RawJsonData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toJsonBytes;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toSingleLine;
+
+/**
+ * Long-lived bulk ingester.
+ * Operations are buffered and sent as one bulk request when the buffer reaches
+ * maxOperations or maxBytes, or when its oldest operation has been waiting for flushInterval.
+ * At most maxConcurrentRequests bulk requests are in flight; callers block when all are busy.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchBulkIngester<T extends BaseT> implements Closeable {
+
+    private final static int DEFAULT_MAX_OPERATIONS = 1000;
+    private final static long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    private final static long DEFAULT_FLUSH_INTERVAL = 1000;
+    private final static int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+
+    /**
+     * estimated size of the action line, without index and id
+     */
+    private final static int ACTION_OVERHEAD = 32;
+
+    private final ElasticsearchBaseClient<T> baseClient;
+    private final ElasticsearchClient client;
+    private final JsonpMapper mapper;
+    private final int maxOperations;
+    private final long maxBytes;
+    private final long flushInterval;
+    private final int maxConcurrentRequests;
+
+    private final Object lock = new Object();
+    private final Semaphore requests;
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private List<BulkOperation> operations = new ArrayList<>();
+    private long bytes = 0;
+    private long firstAdded = 0;
+    private volatile boolean closed = false;
+    private volatile Listener listener;
+
+    private final AtomicLong executionId = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Instantiation with default limits
+     *
+     * @param baseClient ElasticsearchBaseClient
+     */
+    public ElasticsearchBulkIngester(ElasticsearchBaseClient<T> baseClient) {
+        this(baseClient, DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_BYTES, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient            ElasticsearchBaseClient
+     * @param maxOperations         max operations per bulk request
+     * @param maxBytes              max estimated bytes per bulk request
+     * @param flushInterval         max linger time of buffered operations, milliseconds, 0 to disable
+     * @param maxConcurrentRequests max bulk requests in flight
+     */
+    public ElasticsearchBulkIngester(ElasticsearchBaseClient<T> baseClient, int maxOperations, long maxBytes,
+                                     long flushInterval, int maxConcurrentRequests) {
+        if (maxOperations <= 0 || maxBytes <= 0 || maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("maxOperations, maxBytes and maxConcurrentRequests must be positive！");
+        }
+        this.baseClient = baseClient;
+        this.client = baseClient.getClient();
+        this.mapper = baseClient.getTransport().jsonpMapper();
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxBytes;
+        this.flushInterval = flushInterval;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.requests = new Semaphore(maxConcurrentRequests);
+        this.executor = Executors.newFixedThreadPool(maxConcurrentRequests, daemonFactory("es-bulk-ingester"));
+        if (flushInterval > 0) {
+            // one check per buffer, scheduled when its first operation is added
+            this.scheduler = new ScheduledThreadPoolExecutor(1, daemonFactory("es-bulk-ingester-flush"));
+            this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * set listener, called after each bulk request
+     *
+     * @param listener Listener
+     * @return ElasticsearchBulkIngester
+     */
+    public ElasticsearchBulkIngester<T> setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * add index operation by T
+     *
+     * @param index index
+     * @param t     T
+     * @throws IOException
+     */
+    public void index(String index, T t) throws IOException {
+        RawJsonData document = new RawJsonData(toJsonBytes(t, mapper));
+        add(BulkOperation.of(o -> o.index(i -> i
+                        .index(index)
+                        .id(t.getId())
+                        .document(document))),
+                estimate(index, t.getId()) + document.length());
+    }
+
+    /**
+     * add index operation by json bytes, the bytes are sent as they are when they are on one line,
+     * pretty printed json is written on one line first
+     *
+     * @param index index
+     * @param id    doc id, nullable
+     * @param json  json bytes, utf-8
+     * @throws IOException if the json is not one document
+     */
+    public void index(String index, String id, byte[] json) throws IOException {
+        // a line break would split the document in the NDJSON body and fail the whole batch
+        RawJsonData document = new RawJsonData(toSingleLine(json));
+        add(BulkOperation.of(o -> o.index(i -> i
+                        .index(index)
+                        .id(id)
+                        .document(document))),
+                estimate(index, id) + document.length());
+    }
+
+    /**
+     * add delete operation
+     *
+     * @param index index
+     * @param id    doc id
+     * @throws IOException
+     */
+    public void delete(String index, String id) throws IOException {
+        add(BulkOperation.of(o -> o.delete(d -> d
+                        .index(index)
+                        .id(id))),
+                estimate(index, id));
+    }
+
+    /**
+     * send buffered operations and wait until all bulk requests in flight are finished
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        List<BulkOperation> batch;
+        synchronized (lock) {
+            batch = take();
+        }
+        send(batch);
+        try {
+            requests.acquire(maxConcurrentRequests);
+            requests.release(maxConcurrentRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for bulk requests！");
+        }
+    }
+
+    /**
+     * flush and release the threads, no operation can be added afterwards
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing ingester！");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * get the number of operations accepted by elasticsearch
+     *
+     * @return long
+     */
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * get the number of failed operations
+     *
+     * @return long
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * get the number of bulk requests sent
+     *
+     * @return long
+     */
+    public long getRequests() {
+        return executionId.get();
+    }
+
+    /**
+     * add operation, send the buffer when it is full
+     *
+     * @param operation BulkOperation
+     * @param size      estimated bytes
+     * @throws IOException
+     */
+    void add(BulkOperation operation, long size) throws IOException {
+        List<BulkOperation> batch = null;
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("ingester is closed！");
+            }
+            if (operations.isEmpty()) {
+                firstAdded = System.nanoTime();
+                scheduleLingerCheck();
+            }
+            operations.add(operation);
+            bytes += size;
+            if (operations.size() >= maxOperations || bytes >= maxBytes) {
+                batch = take();
+            }
+        }
+        send(batch);
+    }
+
+    /**
+     * estimate the size of the action line
+     *
+     * @param index index
+     * @param id    doc id
+     * @return long
+     */
+    static long estimate(String index, String id) {
+        return ACTION_OVERHEAD + index.length() + (id == null ? 0 : id.length());
+    }
+
+    /**
+     * take the buffered operations, must hold the lock
+     *
+     * @return List<BulkOperation>
+     */
+    private List<BulkOperation> take() {
+        if (operations.isEmpty()) {
+            return null;
+        }
+        List<BulkOperation> batch = operations;
+        operations = new ArrayList<>();
+        bytes = 0;
+        return batch;
+    }
+
+    /**
+     * schedule the linger check of a new buffer at its first operation plus flushInterval, must hold the lock
+     */
+    private void scheduleLingerCheck() {
+        if (scheduler == null) {
+            return;
+        }
+        try {
+            scheduler.schedule(this::flushIfLingering, flushInterval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closing, the buffer is sent by close
+        }
+    }
+
+    /**
+     * called by the scheduler, send the buffer if its first operation waited for flushInterval.
+     * A check of a buffer already sent by size finds a younger buffer, which has its own check
+     */
+    private void flushIfLingering() {
+        List<BulkOperation> batch = null;
+        synchronized (lock) {
+            if (!operations.isEmpty()
+                    && System.nanoTime() - firstAdded >= TimeUnit.MILLISECONDS.toNanos(flushInterval)) {
+                batch = take();
+            }
+        }
+        try {
+            send(batch);
+        } catch (IOException e) {
+            // interrupted, the operations of this batch are lost
+            failed.addAndGet(batch.size());
+        }
+    }
+
+    /**
+     * send one bulk request, blocks while maxConcurrentRequests requests are in flight
+     *
+     * @param batch operations
+     * @throws IOException
+     */
+    private void send(List<BulkOperation> batch) throws IOException {
+        if (batch == null) {
+            return;
+        }
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for bulk requests！");
+        }
+        long id = executionId.incrementAndGet();
+        BulkRequest request = BulkRequest.of(b -> b.operations(batch));
+        try {
+            executor.execute(() -> {
+                try {
+                    BulkResponse response;
+                    try {
+                        response = client.bulk(request);
+                    } catch (Exception e) {
+                        failed.addAndGet(batch.size());
+                        afterBulk(id, request, e);
+                        return;
+                    }
+                    long errors = response.errors()
+                            ? response.items().stream().filter(a -> a.error() != null).count()
+                            : 0;
+                    failed.addAndGet(errors);
+                    succeeded.addAndGet(response.items().size() - errors);
+                    // outside of the request try, an exception of the listener is not a failed operation
+                    afterBulk(id, request, response);
+                } finally {
+                    baseClient.afterWrite(batch);
+                    requests.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            requests.release();
+            throw new IOException("ingester is closed！", e);
+        }
+    }
+
+    private void afterBulk(long id, BulkRequest request, BulkResponse response) {
+        Listener l = listener;
+        if (l != null) {
+            l.afterBulk(id, request, response);
+        }
+    }
+
+    private void afterBulk(long id, BulkRequest request, Throwable failure) {
+        Listener l = listener;
+        if (l != null) {
+            l.afterBulk(id, request, failure);
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * bulk listener
+     */
+    public interface Listener {
+
+        /**
+         * called after a bulk request returns, check items for per document errors
+         *
+         * @param executionId execution id
+         * @param request     BulkRequest
+         * @param response    BulkResponse
+         */
+        default void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        }
+
+        /**
+         * called after a bulk request fails as a whole
+         *
+         * @param executionId execution id
+         * @param request     BulkRequest
+         * @param failure     failure
+         */
+        default void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.json.JsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Bulk load session of an index.
+ * Opening the session turns off refresh and replicas, closing it restores the original settings,
+ * refreshes the index and optionally force merges it. Use it with try-with-resources,
+ * so the settings are restored when the load fails as well.
+ * <p>
+ * try (ElasticsearchBulkLoadSession session = baseClient.openBulkLoadSession("product")) {
+ * baseClient.saveOrUpdateDocBulkWithList("product", list);
+ * }
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchBulkLoadSession implements Closeable {
+
+    private final static String DEFAULT_REFRESH_INTERVAL = "-1";
+    private final static String DEFAULT_REPLICAS = "0";
+
+    private final ElasticsearchClient client;
+    private final RestClient restClient;
+    private final JsonpMapper mapper;
+    private final String index;
+    private final Long maxNumSegments;
+    private final String originalRefreshInterval;
+    private final String originalReplicas;
+    private boolean closed = false;
+
+    /**
+     * open session with refresh_interval=-1 and number_of_replicas=0, without force merge
+     *
+     * @param baseClient ElasticsearchBaseClient
+     * @param index      index
+     * @return ElasticsearchBulkLoadSession
+     * @throws IOException
+     */
+    public static ElasticsearchBulkLoadSession open(ElasticsearchBaseClient<?> baseClient, String index) throws IOException {
+        return open(baseClient, index, DEFAULT_REFRESH_INTERVAL, DEFAULT_REPLICAS, null);
+    }
+
+    /**
+     * open session
+     *
+     * @param baseClient      ElasticsearchBaseClient
+     * @param index           index
+     * @param refreshInterval refresh_interval during the load, e.g. -1 or 30s
+     * @param replicas        number_of_replicas during the load
+     * @param maxNumSegments  force merge to this number of segments on close, null to skip
+     * @return ElasticsearchBulkLoadSession
+     * @throws IOException
+     */
+    public static ElasticsearchBulkLoadSession open(ElasticsearchBaseClient<?> baseClient, String index, String refreshInterval,
+                                                    String replicas, Long maxNumSegments) throws IOException {
+        if (null == index || index.isEmpty()) {
+            throw new IOException("index cannot be empty！");
+        }
+        ElasticsearchBulkLoadSession session = new ElasticsearchBulkLoadSession(baseClient, index, maxNumSegments);
+        session.putSettings(refreshInterval, replicas);
+        return session;
+    }
+
+    private ElasticsearchBulkLoadSession(ElasticsearchBaseClient<?> baseClient, String index, Long maxNumSegments) throws IOException {
+        this.client = baseClient.getClient();
+        this.restClient = baseClient.getTransport().restClient();
+        this.mapper = baseClient.getTransport().jsonpMapper();
+        this.index = index;
+        this.maxNumSegments = maxNumSegments;
+        IndexState state = client.indices()
+                .getSettings(a -> a.index(index))
+                .get(index);
+        if (state == null) {
+            throw new IOException("index is not exist！");
+        }
+        IndexSettings settings = state.settings().index() != null ? state.settings().index() : state.settings();
+        Time refreshInterval = settings.refreshInterval();
+        if (refreshInterval == null) {
+            this.originalRefreshInterval = null;
+        } else {
+            this.originalRefreshInterval = refreshInterval.isTime() ? refreshInterval.time() : String.valueOf(refreshInterval.offset());
+        }
+        this.originalReplicas = settings.numberOfReplicas();
+    }
+
+    /**
+     * get index
+     *
+     * @return String
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * get refresh_interval of the index before the session
+     *
+     * @return String, null if it was not set
+     */
+    public String getOriginalRefreshInterval() {
+        return originalRefreshInterval;
+    }
+
+    /**
+     * get number_of_replicas of the index before the session
+     *
+     * @return String, null if it was not set
+     */
+    public String getOriginalReplicas() {
+        return originalReplicas;
+    }
+
+    /**
+     * restore the original settings, refresh and force merge.
+     * The settings are restored first, a failure of refresh or force merge does not keep the load settings.
+     * If the settings cannot be restored the session stays open and close can be called again.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        putSettings(originalRefreshInterval, originalReplicas);
+        closed = true;
+        client.indices().refresh(a -> a.index(index));
+        if (maxNumSegments != null) {
+            client.indices().forcemerge(a -> a.index(index).maxNumSegments(maxNumSegments));
+        }
+    }
+
+    /**
+     * put refresh_interval and number_of_replicas, null resets the setting to its default
+     *
+     * @param refreshInterval refresh_interval
+     * @param replicas        number_of_replicas
+     * @throws IOException
+     */
+    private void putSettings(String refreshInterval, String replicas) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = mapper.jsonProvider().createGenerator(out);
+        generator.writeStartObject().writeStartObject("index");
+        if (refreshInterval == null) {
+            generator.writeNull("refresh_interval");
+        } else {
+            generator.write("refresh_interval", refreshInterval);
+        }
+        if (replicas == null) {
+            generator.writeNull("number_of_replicas");
+        } else {
+            generator.write("number_of_replicas", replicas);
+        }
+        generator.writeEnd().writeEnd().close();
+        Request request = new Request("PUT", "/" + index + "/_settings");
+        request.setEntity(new NByteArrayEntity(out.toByteArray(), ContentType.APPLICATION_JSON));
+        restClient.performRequest(request);
+    }
+}
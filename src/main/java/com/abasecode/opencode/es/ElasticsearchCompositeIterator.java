@@ -0,0 +1,179 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iterator over all buckets of a composite aggregation, paged with after_key.
+ * A page of buckets is fetched only when the previous one is consumed, so memory holds one page
+ * on both sides, however many buckets the aggregation has. Sub-aggregations of the composite
+ * aggregation are computed for every bucket.
+ * Query and runtime_mappings of the json are used, hits and other aggregations are not fetched.
+ * The page size is the size of the composite aggregation, 1000 if it has none.
+ * Paging stops at the first page without buckets or without after_key.
+ * Errors of the search are thrown as UncheckedIOException.
+ * <p>
+ * {"aggs": {"brands": {"composite": {"sources": [{"brand": {"terms": {"field": "brand"}}}]},
+ * "aggs": {"avg_price": {"avg": {"field": "price"}}}}}}
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchCompositeIterator implements Iterator<CompositeBucket> {
+
+    private final static int DEFAULT_PAGE_SIZE = 1000;
+
+    private final ElasticsearchClient client;
+    private final String index;
+    private final String aggName;
+    private final SearchRequest template;
+    private final CompositeAggregation composite;
+    private final Map<String, Aggregation> subAggregations;
+    private final int pageSize;
+
+    private Map<String, String> after;
+    private Iterator<CompositeBucket> page = Collections.emptyIterator();
+    private boolean exhausted = false;
+
+    /**
+     * Instantiation, nothing is fetched before the first hasNext
+     *
+     * @param client          ElasticsearchClient
+     * @param index           index
+     * @param aggregationJson json with a composite aggregation
+     * @param aggName         name of the composite aggregation
+     * @throws IOException
+     */
+    public ElasticsearchCompositeIterator(ElasticsearchClient client, String index, String aggregationJson,
+                                          String aggName) throws IOException {
+        if (null == aggregationJson || aggregationJson.isEmpty()) {
+            throw new IOException("aggregationJson cannot be empty！");
+        }
+        this.client = client;
+        this.index = index;
+        this.aggName = aggName;
+        this.template = ElasticsearchSearchAfterIterator.parse(aggregationJson);
+        Aggregation aggregation = template.aggregations().get(aggName);
+        if (aggregation == null || !aggregation.isComposite()) {
+            throw new IOException("aggregation " + aggName + " must be a composite aggregation！");
+        }
+        this.composite = aggregation.composite();
+        this.subAggregations = aggregation.aggregations();
+        this.pageSize = composite.size() == null ? DEFAULT_PAGE_SIZE : composite.size();
+        this.after = composite.after().isEmpty() ? null : composite.after();
+    }
+
+    /**
+     * to stream
+     *
+     * @return Stream<CompositeBucket>
+     */
+    public Stream<CompositeBucket> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!page.hasNext() && !exhausted) {
+                fetch();
+            }
+            return page.hasNext();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CompositeBucket next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    /**
+     * fetch the next page of buckets after the last after_key
+     *
+     * @throws IOException
+     */
+    private void fetch() throws IOException {
+        Aggregation aggregation = Aggregation.of(a -> {
+            Aggregation.Builder.ContainerBuilder container = a.composite(c -> {
+                c.sources(composite.sources()).size(pageSize);
+                if (after != null) {
+                    c.after(after);
+                }
+                return c;
+            });
+            if (!subAggregations.isEmpty()) {
+                container.aggregations(subAggregations);
+            }
+            return container;
+        });
+        SearchResponse<Void> response = client.search(s -> {
+            s.index(index)
+                    .ignoreUnavailable(true)
+                    .size(0)
+                    .trackTotalHits(t -> t.enabled(false))
+                    .query(template.query())
+                    .aggregations(aggName, aggregation);
+            if (!template.runtimeMappings().isEmpty()) {
+                s.runtimeMappings(template.runtimeMappings());
+            }
+            return s;
+        }, Void.class);
+        CompositeAggregate aggregate = response.aggregations().get(aggName).composite();
+        List<CompositeBucket> buckets = aggregate.buckets().array();
+        // a page shorter than size is not necessarily the last one, only an empty page or a missing after_key is
+        if (buckets.isEmpty() || aggregate.afterKey().isEmpty()) {
+            exhausted = true;
+        } else {
+            after = toAfter(aggregate.afterKey());
+        }
+        page = buckets.iterator();
+    }
+
+    /**
+     * after_key of the response to after of the request, null stays null for missing_bucket
+     *
+     * @param afterKey after_key
+     * @return Map<String, String>
+     */
+    private static Map<String, String> toAfter(Map<String, JsonData> afterKey) {
+        Map<String, String> map = new HashMap<>(afterKey.size() * 2);
+        afterKey.forEach((k, v) -> {
+            JsonValue value = v.toJson();
+            if (value instanceof JsonString) {
+                map.put(k, ((JsonString) value).getString());
+            } else {
+                map.put(k, value == JsonValue.NULL ? null : value.toString());
+            }
+        });
+        return map;
+    }
+}
@@ -0,0 +1,167 @@
+package com.abasecode.opencode.es;
+
+import com.abasecode.opencode.es.entity.BaseT;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.readId;
+
+/**
+ * Streaming file ingest.
+ * NDJSON files are read in fixed-size chunks and split into lines, every line is handed to
+ * an ElasticsearchBulkIngester, which cuts them into size-bounded bulk requests
+ * and keeps several of them in flight. Heap use does not depend on the file size.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchFileIngester<T extends BaseT> {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int LINE_SIZE = 4 * 1024;
+
+    private final ElasticsearchBulkIngester<T> ingester;
+
+    /**
+     * Instantiation
+     *
+     * @param ingester ElasticsearchBulkIngester, limits of bulk requests are taken from it
+     */
+    public ElasticsearchFileIngester(ElasticsearchBulkIngester<T> ingester) {
+        this.ingester = ingester;
+    }
+
+    /**
+     * ingest a NDJSON file, one document per line.
+     * Note: the document id is read from the "id" field, documents without id get a generated one
+     *
+     * @param index index
+     * @param file  file
+     * @return long, the number of documents read
+     * @throws IOException
+     */
+    public long ingestNdjson(String index, String file) throws IOException {
+        if (null == file || file.isEmpty()) {
+            throw new IOException("File is not exist!");
+        }
+        long count;
+        try (InputStream input = new FileInputStream(file)) {
+            count = ingestNdjson(index, input);
+        }
+        ingester.flush();
+        return count;
+    }
+
+    /**
+     * ingest a directory.
+     * *.ndjson files are streamed line by line, every *.json file is one document,
+     * a pretty printed document is written on one line. Other files are ignored.
+     *
+     * @param index index
+     * @param path  path
+     * @return long, the number of documents read
+     * @throws IOException
+     */
+    public long ingestDirectory(String index, String path) throws IOException {
+        if (null == path || path.isEmpty()) {
+            throw new IOException("path cannot be empty！");
+        }
+        File[] files = new File(path).listFiles(f -> f.isFile() && (f.getName().endsWith(".json") || f.getName().endsWith(".ndjson")));
+        if (files == null) {
+            throw new IOException("path is not a directory！");
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        long count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".ndjson")) {
+                try (InputStream input = new FileInputStream(file)) {
+                    count += ingestNdjson(index, input);
+                }
+            } else {
+                byte[] json = Files.readAllBytes(file.toPath());
+                ingester.index(index, readId(json), json);
+                count++;
+            }
+        }
+        ingester.flush();
+        return count;
+    }
+
+    /**
+     * ingest NDJSON from stream, the stream is not closed
+     *
+     * @param index index
+     * @param input InputStream
+     * @return long, the number of documents read
+     * @throws IOException
+     */
+    public long ingestNdjson(String index, InputStream input) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] line = new byte[LINE_SIZE];
+        int length = 0;
+        long count = 0;
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                line = append(line, length, buffer, start, i - start);
+                length += i - start;
+                count += ingestLine(index, line, length);
+                length = 0;
+                start = i + 1;
+            }
+            line = append(line, length, buffer, start, n - start);
+            length += n - start;
+        }
+        count += ingestLine(index, line, length);
+        return count;
+    }
+
+    /**
+     * append bytes to the line buffer, grow it when needed
+     *
+     * @param line   line buffer
+     * @param length used length of line buffer
+     * @param source source
+     * @param offset offset of source
+     * @param size   bytes to append
+     * @return byte[], the line buffer
+     */
+    private static byte[] append(byte[] line, int length, byte[] source, int offset, int size) {
+        if (length + size > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + size));
+        }
+        System.arraycopy(source, offset, line, length, size);
+        return line;
+    }
+
+    /**
+     * ingest one line, blank lines are skipped
+     *
+     * @param index  index
+     * @param line   line buffer
+     * @param length length
+     * @return int, 1 if a document is added
+     * @throws IOException
+     */
+    private int ingestLine(String index, byte[] line, int length) throws IOException {
+        while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == ' ' || line[length - 1] == '\t')) {
+            length--;
+        }
+        if (length == 0) {
+            return 0;
+        }
+        byte[] json = Arrays.copyOf(line, length);
+        ingester.index(index, readId(json), json);
+        return 1;
+    }
+}
@@ -0,0 +1,205 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.json.JsonpMapper;
+import com.abasecode.opencode.es.util.RawJsonData;
+import jakarta.json.stream.JsonParser;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.io.ByteArrayInputStream;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Page of hits decoded on access.
+ * The _source of the hits is kept as json bytes, a hit is decoded into T the first time it is read,
+ * so a caller using only the first hits does not pay for the others.
+ * The total is exact when tracked by the query, otherwise it is a lower bound, see isTotalExact.
+ * hasNext is always exact, one hit more than the page size is fetched to know it.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchLazyPage<T> implements Page<T> {
+
+    private final List<RawJsonData> sources;
+    private final Object[] decoded;
+    private final PageRequest pageRequest;
+    private final int pageSize;
+    private final long offset;
+    private final long total;
+    private final boolean totalExact;
+    private final boolean hasNext;
+    private final JsonpMapper mapper;
+    private final Class<T> clazz;
+    private final List<T> content = new AbstractList<T>() {
+        @Override
+        public T get(int index) {
+            return decode(index);
+        }
+
+        @Override
+        public int size() {
+            return sources.size();
+        }
+    };
+
+    /**
+     * Instantiation
+     *
+     * @param sources     _source of the hits, null for hits without _source
+     * @param pageRequest pageRequest
+     * @param pageSize    page size
+     * @param offset      offset of the first hit
+     * @param total       total hits, lower bound if not exact
+     * @param totalExact  is the total exact
+     * @param hasNext     are there hits after this page
+     * @param mapper      JsonpMapper
+     * @param clazz       class
+     */
+    ElasticsearchLazyPage(List<RawJsonData> sources, PageRequest pageRequest, int pageSize, long offset, long total,
+                          boolean totalExact, boolean hasNext, JsonpMapper mapper, Class<T> clazz) {
+        this.sources = sources;
+        this.decoded = new Object[sources.size()];
+        this.pageRequest = pageRequest;
+        this.pageSize = pageSize;
+        this.offset = offset;
+        this.hasNext = hasNext;
+        this.total = totalExact ? total : Math.max(total, offset + sources.size() + (hasNext ? 1 : 0));
+        this.totalExact = totalExact;
+        this.mapper = mapper;
+        this.clazz = clazz;
+    }
+
+    /**
+     * get the json bytes of a hit without decoding it
+     *
+     * @param index index in the page
+     * @return byte[], null for a hit without _source
+     */
+    public byte[] getRaw(int index) {
+        RawJsonData source = sources.get(index);
+        return source == null ? null : source.getBytes();
+    }
+
+    /**
+     * is the total exact, false when total tracking was off or capped below the real total
+     *
+     * @return boolean
+     */
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+
+    @Override
+    public int getTotalPages() {
+        return (int) ((total + pageSize - 1) / pageSize);
+    }
+
+    @Override
+    public long getTotalElements() {
+        return total;
+    }
+
+    @Override
+    public <U> Page<U> map(Function<? super T, ? extends U> converter) {
+        return new PageImpl<>(content.stream().map(converter).collect(Collectors.toList()), pageRequest, total);
+    }
+
+    @Override
+    public int getNumber() {
+        return pageRequest.getPageNumber();
+    }
+
+    @Override
+    public int getSize() {
+        return pageSize;
+    }
+
+    @Override
+    public int getNumberOfElements() {
+        return sources.size();
+    }
+
+    @Override
+    public List<T> getContent() {
+        return content;
+    }
+
+    @Override
+    public boolean hasContent() {
+        return !sources.isEmpty();
+    }
+
+    @Override
+    public Sort getSort() {
+        return pageRequest.getSort();
+    }
+
+    @Override
+    public boolean isFirst() {
+        return !hasPrevious();
+    }
+
+    @Override
+    public boolean isLast() {
+        return !hasNext;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return offset > 0;
+    }
+
+    @Override
+    public Pageable getPageable() {
+        return pageRequest;
+    }
+
+    @Override
+    public Pageable nextPageable() {
+        return hasNext ? pageRequest.next() : Pageable.unpaged();
+    }
+
+    @Override
+    public Pageable previousPageable() {
+        return hasPrevious() ? pageRequest.previousOrFirst() : Pageable.unpaged();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return content.iterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized T decode(int index) {
+        Object value = decoded[index];
+        if (value == null && sources.get(index) != null) {
+            try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(sources.get(index).getBytes()))) {
+                value = mapper.deserialize(parser, clazz);
+            }
+            decoded[index] = value;
+        }
+        return (T) value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Page %s of %s%s containing %s instances", getNumber(), getTotalPages(),
+                totalExact ? "" : "+", clazz.getName());
+    }
+}
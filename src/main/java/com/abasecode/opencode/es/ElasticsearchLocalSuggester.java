@@ -0,0 +1,315 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Local prefix index of a completion field.
+ * The inputs and weights of the field are read from _source of all docs into sorted arrays,
+ * a prefix lookup is a binary search and a scan of the matching range, no request is sent.
+ * Inputs are matched case insensitive, an input of several docs is kept once with its highest weight.
+ * Contexts of the completion field are not indexed, and the analyzer of the field is not applied,
+ * so a completion field with e.g. a pinyin analyzer should stay on getSuggestionsByJson.
+ * For a completion multi-field the inputs are read from the parent field, see sourceField.
+ * The arrays are rebuilt in the background and swapped when complete, lookups never wait for a refresh.
+ * Until the first refresh is done, or when the field has more inputs than maxEntries,
+ * lookups are sent to the cluster as completion suggest requests.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchLocalSuggester implements Closeable {
+
+    private final static String SUGGEST_NAME = "local-suggester";
+    private final static int LOAD_PAGE_SIZE = 1000;
+    private final static String INPUT = "input";
+    private final static String WEIGHT = "weight";
+
+    private final ElasticsearchClient client;
+    private final String index;
+    private final String field;
+    private final String sourceField;
+    private final String[] path;
+    private final long refreshInterval;
+    private final int maxEntries;
+
+    private volatile Snapshot snapshot;
+    private volatile IOException lastError;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Instantiation, call start to load and refresh in the background
+     *
+     * @param baseClient      ElasticsearchBaseClient
+     * @param index           index
+     * @param field           completion field, used by the cluster lookups
+     * @param sourceField     field of _source holding the inputs, dotted path for an inner field,
+     *                        the completion field itself or the parent of a completion multi-field
+     * @param refreshInterval refresh interval, milliseconds
+     * @param maxEntries      max distinct inputs kept in memory
+     */
+    public ElasticsearchLocalSuggester(ElasticsearchBaseClient<?> baseClient, String index, String field,
+                                       String sourceField, long refreshInterval, int maxEntries) {
+        if (refreshInterval <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("refreshInterval and maxEntries must be positive！");
+        }
+        this.client = baseClient.getClient();
+        this.index = index;
+        this.field = field;
+        this.sourceField = sourceField;
+        this.path = sourceField.split("\\.");
+        this.refreshInterval = refreshInterval;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * load now and then every refresh interval on a background thread
+     *
+     * @return ElasticsearchLocalSuggester
+     */
+    public synchronized ElasticsearchLocalSuggester start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "es-local-suggester-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    refresh();
+                } catch (IOException e) {
+                    lastError = e;
+                }
+            }, 0, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * rebuild the prefix index now, the old one is kept if the rebuild fails,
+     * it is dropped if the inputs exceed maxEntries
+     *
+     * @throws IOException
+     */
+    public void refresh() throws IOException {
+        Map<String, String> texts = new HashMap<>();
+        Map<String, Integer> weights = new HashMap<>();
+        SearchRequest template = SearchRequest.of(s -> s.source(c -> c.filter(f -> f.includes(sourceField))));
+        try (ElasticsearchSearchAfterIterator<JsonData> iterator = ElasticsearchSearchAfterIterator.open(
+                client, index, template, LOAD_PAGE_SIZE, JsonData.class)) {
+            while (iterator.hasNext()) {
+                JsonData source = iterator.next();
+                if (source != null) {
+                    addInputs(find(source.toJson()), 1, texts, weights);
+                }
+                if (texts.size() > maxEntries) {
+                    snapshot = null;
+                    throw new IOException("inputs of " + sourceField + " exceed maxEntries！");
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("inputs of " + sourceField + " cannot be loaded！", e);
+        }
+        String[] keys = texts.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        String[] sortedTexts = new String[keys.length];
+        int[] sortedWeights = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sortedTexts[i] = texts.get(keys[i]);
+            sortedWeights[i] = weights.get(keys[i]);
+        }
+        snapshot = new Snapshot(keys, sortedTexts, sortedWeights);
+        lastError = null;
+    }
+
+    /**
+     * suggest inputs starting with the prefix, highest weight first
+     *
+     * @param prefix prefix
+     * @param size   max suggestions
+     * @return List<String>
+     * @throws IOException
+     */
+    public List<String> suggest(String prefix, int size) throws IOException {
+        if (size <= 0) {
+            throw new IOException("size must be positive！");
+        }
+        Snapshot current = snapshot;
+        if (current == null) {
+            return suggestByCluster(prefix, size);
+        }
+        String key = prefix.toLowerCase(Locale.ROOT);
+        PriorityQueue<Integer> top = new PriorityQueue<>(size + 1, (a, b) -> current.weights[a] != current.weights[b]
+                ? Integer.compare(current.weights[a], current.weights[b])
+                : Integer.compare(b, a));
+        for (int i = lowerBound(current.keys, key); i < current.keys.length && current.keys[i].startsWith(key); i++) {
+            top.offer(i);
+            if (top.size() > size) {
+                top.poll();
+            }
+        }
+        String[] result = new String[top.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = current.texts[top.poll()];
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * is the prefix index loaded, lookups go to the cluster until it is
+     *
+     * @return boolean
+     */
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    /**
+     * get number of distinct inputs in memory
+     *
+     * @return int
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.keys.length;
+    }
+
+    /**
+     * get the error of the last background refresh
+     *
+     * @return IOException, null if it succeeded
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * stop the background refresh
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * completion suggest request of the prefix
+     *
+     * @param prefix prefix
+     * @param size   max suggestions
+     * @return List<String>
+     * @throws IOException
+     */
+    private List<String> suggestByCluster(String prefix, int size) throws IOException {
+        SearchResponse<Void> response = client.search(s -> s
+                .index(index)
+                .ignoreUnavailable(true)
+                .size(0)
+                .source(c -> c.fetch(false))
+                .suggest(g -> g.suggesters(SUGGEST_NAME, f -> f
+                        .prefix(prefix)
+                        .completion(c -> c
+                                .field(field)
+                                .size(size)
+                                .skipDuplicates(true)))), Void.class);
+        return response.suggest()
+                .get(SUGGEST_NAME)
+                .get(0)
+                .completion()
+                .options()
+                .stream()
+                .map(a -> a.text())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * find the field in _source
+     *
+     * @param source _source
+     * @return JsonValue, null if absent
+     */
+    private JsonValue find(JsonValue source) {
+        JsonValue value = source;
+        for (String name : path) {
+            if (!(value instanceof JsonObject)) {
+                return null;
+            }
+            value = ((JsonObject) value).get(name);
+        }
+        return value;
+    }
+
+    /**
+     * add the inputs of a completion value, a string, an array or an object with input and weight
+     *
+     * @param value   value
+     * @param weight  weight of the inputs
+     * @param texts   text by key
+     * @param weights weight by key
+     */
+    private static void addInputs(JsonValue value, int weight, Map<String, String> texts, Map<String, Integer> weights) {
+        if (value instanceof JsonString) {
+            String text = ((JsonString) value).getString();
+            String key = text.toLowerCase(Locale.ROOT);
+            Integer old = weights.get(key);
+            if (old == null || old < weight) {
+                texts.put(key, text);
+                weights.put(key, weight);
+            }
+        } else if (value instanceof JsonArray) {
+            for (JsonValue item : (JsonArray) value) {
+                addInputs(item, weight, texts, weights);
+            }
+        } else if (value instanceof JsonObject) {
+            JsonObject object = (JsonObject) value;
+            JsonValue w = object.get(WEIGHT);
+            int inputWeight = weight;
+            if (w instanceof JsonNumber) {
+                inputWeight = ((JsonNumber) w).intValue();
+            } else if (w instanceof JsonString) {
+                inputWeight = Integer.parseInt(((JsonString) w).getString());
+            }
+            addInputs(object.get(INPUT), inputWeight, texts, weights);
+        }
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * sorted inputs
+     */
+    private static class Snapshot {
+        private final String[] keys;
+        private final String[] texts;
+        private final int[] weights;
+
+        Snapshot(String[] keys, String[] texts, int[] weights) {
+            this.keys = keys;
+            this.texts = texts;
+            this.weights = weights;
+        }
+    }
+}
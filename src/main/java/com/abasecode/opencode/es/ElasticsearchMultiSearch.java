@@ -0,0 +1,202 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchBody;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import com.abasecode.opencode.es.entity.BaseT;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Several queries in one _msearch round trip.
+ * Every registered query returns a typed item, the items are filled by execute.
+ * The _source of the hits of all queries is decoded into the class of the multi search once, by the response parser.
+ * A failed query only fails its own item.
+ * <p>
+ * ElasticsearchMultiSearch<Product> multiSearch = baseClient.multiSearch(Product.class);
+ * Item<List<Product>> products = multiSearch.queryByJson("product", json);
+ * Item<List<StringTermsBucket>> brands = multiSearch.getStringTermsBucketByJson("product", aggJson, "brands");
+ * multiSearch.execute();
+ * products.get();
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchMultiSearch<T extends BaseT> {
+
+    private final ElasticsearchClient client;
+    private final Class<T> clazz;
+    private final List<RequestItem> searches = new ArrayList<>();
+    private final List<Item<?>> items = new ArrayList<>();
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient ElasticsearchBaseClient
+     * @param clazz      class of the hits
+     */
+    public ElasticsearchMultiSearch(ElasticsearchBaseClient<T> baseClient, Class<T> clazz) {
+        this.client = baseClient.getClient();
+        this.clazz = clazz;
+    }
+
+    /**
+     * add query by json
+     *
+     * @param index index
+     * @param json  json
+     * @return Item<List<T>>
+     */
+    public Item<List<T>> queryByJson(String index, String json) {
+        return add(index, MultisearchBody.of(b -> b.withJson(new StringReader(json))), ElasticsearchMultiSearch::getList);
+    }
+
+    /**
+     * add query by json with page
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest
+     * @return Item<Page<T>>
+     */
+    public Item<Page<T>> queryByJsonWithPage(String index, String json, PageRequest pageRequest) {
+        return add(index, MultisearchBody.of(b -> b
+                        .withJson(new StringReader(json))
+                        .size(ElasticsearchBaseClient.getPageSize(pageRequest))
+                        .from(ElasticsearchBaseClient.getFrom(pageRequest))),
+                r -> new PageImpl<>(getList(r), pageRequest, r.hits().total().value()));
+    }
+
+    /**
+     * add stringTermsBucket by json
+     *
+     * @param index           index
+     * @param aggregationJson json
+     * @param aggName         agg name
+     * @return Item<List<StringTermsBucket>>
+     */
+    public Item<List<StringTermsBucket>> getStringTermsBucketByJson(String index, String aggregationJson, String aggName) {
+        return add(index, MultisearchBody.of(b -> b.withJson(new StringReader(aggregationJson))), r -> r.aggregations()
+                .get(aggName)
+                .sterms()
+                .buckets()
+                .array());
+    }
+
+    /**
+     * add histogramBucket by json
+     *
+     * @param index           index
+     * @param aggregationJson json
+     * @param aggName         agg name
+     * @return Item<List<HistogramBucket>>
+     */
+    public Item<List<HistogramBucket>> getHistogramBucketByJson(String index, String aggregationJson, String aggName) {
+        return add(index, MultisearchBody.of(b -> b.withJson(new StringReader(aggregationJson))), r -> r.aggregations()
+                .get(aggName)
+                .histogram()
+                .buckets()
+                .array());
+    }
+
+    /**
+     * add query with own result mapping, _source of the hits is T
+     *
+     * @param index  index
+     * @param body   MultisearchBody
+     * @param mapper result mapping
+     * @return Item<R>
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Item<R> add(String index, MultisearchBody body, Function<ResponseBody<T>, R> mapper) {
+        searches.add(RequestItem.of(a -> a
+                .header(h -> h.index(index).ignoreUnavailable(true))
+                .body(body)));
+        Item<R> item = new Item<>(r -> mapper.apply((ResponseBody<T>) r));
+        items.add(item);
+        return item;
+    }
+
+    /**
+     * send the registered queries as one _msearch and fill the items
+     *
+     * @throws IOException
+     */
+    public void execute() throws IOException {
+        if (searches.isEmpty()) {
+            throw new IOException("searches cannot be empty！");
+        }
+        List<Item<?>> executed = new ArrayList<>(items);
+        MsearchResponse<T> response = client.msearch(a -> a.searches(new ArrayList<>(searches)), clazz);
+        searches.clear();
+        items.clear();
+        List<MultiSearchResponseItem<T>> responses = response.responses();
+        for (int i = 0; i < executed.size(); i++) {
+            executed.get(i).response = responses.get(i);
+        }
+    }
+
+    private static <R> List<R> getList(ResponseBody<R> response) {
+        List<R> list = new ArrayList<>();
+        response.hits().hits().stream().forEach(t -> list.add(t.source()));
+        return list;
+    }
+
+    /**
+     * result of one query
+     */
+    public static class Item<R> {
+        private final Function<ResponseBody<?>, R> mapper;
+        private volatile MultiSearchResponseItem<?> response;
+        private R result;
+
+        Item(Function<ResponseBody<?>, R> mapper) {
+            this.mapper = mapper;
+        }
+
+        /**
+         * get result
+         *
+         * @return R
+         * @throws IOException the query failed or execute has not run
+         */
+        public synchronized R get() throws IOException {
+            if (response == null) {
+                throw new IOException("multi search is not executed！");
+            }
+            if (response.isFailure()) {
+                ErrorCause error = response.failure().error();
+                throw new IOException(error.type() + ": " + error.reason());
+            }
+            if (result == null) {
+                result = mapper.apply(response.result());
+            }
+            return result;
+        }
+
+        /**
+         * has the query failed
+         *
+         * @return boolean
+         */
+        public boolean isFailure() {
+            return response != null && response.isFailure();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.json.JsonpMapper;
+import com.abasecode.opencode.es.entity.QueryCacheStats;
+import jakarta.json.stream.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap near cache of documents by id.
+ * Documents are kept as their _source bytes in one direct buffer, cut into fixed size slots, a document takes
+ * as many slots as it needs. Only the slot numbers of a document are on the heap, so the cache does not
+ * add to the work of the garbage collector. Reads copy the bytes out and decode them into the requested class,
+ * callers never share an instance, and a document cached for one class is read complete by another.
+ * The least recently used document is dropped when the slots run out.
+ * Writes through the same ElasticsearchBaseClient invalidate the written ids, writes by query the whole index.
+ * The direct buffer is released by the garbage collector when the cache is no longer referenced.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchNearCache {
+
+    private final JsonpMapper mapper;
+    private final ByteBuffer buffer;
+    private final int slotSize;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Instantiation
+     *
+     * @param mapper   JsonpMapper of the transport
+     * @param capacity off-heap bytes
+     * @param slotSize bytes per slot, e.g. the median document size
+     */
+    public ElasticsearchNearCache(JsonpMapper mapper, int capacity, int slotSize) {
+        if (slotSize <= 0 || capacity < slotSize) {
+            throw new IllegalArgumentException("slotSize must be positive and capacity cannot be less than slotSize！");
+        }
+        this.mapper = mapper;
+        this.slotSize = slotSize;
+        int slots = capacity / slotSize;
+        this.buffer = ByteBuffer.allocateDirect(slots * slotSize);
+        this.freeSlots = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            freeSlots[i] = slots - 1 - i;
+        }
+        this.freeCount = slots;
+    }
+
+    /**
+     * get from cache, or load and cache
+     *
+     * @param index  index
+     * @param id     doc id
+     * @param clazz  class
+     * @param loader query of the _source bytes, null result is not cached
+     * @return R
+     * @throws IOException
+     */
+    public <R> R get(String index, String id, Class<R> clazz, ElasticsearchQueryCache.Loader<byte[]> loader) throws IOException {
+        String key = key(index, id);
+        byte[] bytes = read(key);
+        if (bytes != null) {
+            hits.incrementAndGet();
+            return decode(bytes, clazz);
+        }
+        misses.incrementAndGet();
+        long generation = generation(index).get();
+        bytes = loader.load();
+        if (bytes == null) {
+            return null;
+        }
+        write(index, key, bytes, generation);
+        return decode(bytes, clazz);
+    }
+
+    /**
+     * drop a document
+     *
+     * @param index index
+     * @param id    doc id
+     */
+    public synchronized void invalidate(String index, String id) {
+        generation(index).incrementAndGet();
+        CacheEntry entry = entries.remove(key(index, id));
+        if (entry != null) {
+            free(entry);
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * drop all documents of an index
+     *
+     * @param index index
+     */
+    public synchronized void invalidate(String index) {
+        generation(index).incrementAndGet();
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.index.equals(index)) {
+                iterator.remove();
+                free(entry);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * get statistics
+     *
+     * @return QueryCacheStats
+     */
+    public synchronized QueryCacheStats getStats() {
+        return new QueryCacheStats()
+                .setHits(hits.get())
+                .setMisses(misses.get())
+                .setEvictions(evictions.get())
+                .setInvalidations(invalidations.get())
+                .setSize(entries.size());
+    }
+
+    /**
+     * copy the bytes of a document out of the buffer
+     *
+     * @param key key
+     * @return byte[], null if absent
+     */
+    private synchronized byte[] read(String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.length];
+        for (int i = 0, offset = 0; i < entry.slots.length; i++, offset += slotSize) {
+            buffer.position(entry.slots[i] * slotSize);
+            buffer.get(bytes, offset, Math.min(slotSize, entry.length - offset));
+        }
+        return bytes;
+    }
+
+    /**
+     * copy the bytes of a document into free slots, least recently used documents are dropped for space.
+     * Nothing is written if the index was written since the document was loaded
+     *
+     * @param index      index
+     * @param key        key
+     * @param bytes      json bytes
+     * @param generation generation of the index when the document was loaded
+     */
+    private synchronized void write(String index, String key, byte[] bytes, long generation) {
+        int needed = (bytes.length + slotSize - 1) / slotSize;
+        if (generation(index).get() != generation || needed > freeSlots.length || needed == 0) {
+            return;
+        }
+        CacheEntry old = entries.remove(key);
+        if (old != null) {
+            free(old);
+        }
+        Iterator<CacheEntry> eldest = entries.values().iterator();
+        while (freeCount < needed) {
+            CacheEntry entry = eldest.next();
+            eldest.remove();
+            free(entry);
+            evictions.incrementAndGet();
+        }
+        int[] slots = new int[needed];
+        for (int i = 0, offset = 0; i < needed; i++, offset += slotSize) {
+            slots[i] = freeSlots[--freeCount];
+            buffer.position(slots[i] * slotSize);
+            buffer.put(bytes, offset, Math.min(slotSize, bytes.length - offset));
+        }
+        entries.put(key, new CacheEntry(index, slots, bytes.length));
+    }
+
+    private <R> R decode(byte[] bytes, Class<R> clazz) {
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(bytes))) {
+            return mapper.deserialize(parser, clazz);
+        }
+    }
+
+    private void free(CacheEntry entry) {
+        for (int slot : entry.slots) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    private AtomicLong generation(String index) {
+        return generations.computeIfAbsent(index, a -> new AtomicLong());
+    }
+
+    private static String key(String index, String id) {
+        return index + "/" + id;
+    }
+
+    /**
+     * slots of a document
+     */
+    private static class CacheEntry {
+        private final String index;
+        private final int[] slots;
+        private final int length;
+
+        CacheEntry(String index, int[] slots, int length) {
+            this.index = index;
+            this.slots = slots;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.JsonpMapper;
+import com.abasecode.opencode.es.entity.BaseT;
+import com.abasecode.opencode.es.entity.BulkResult;
+import com.abasecode.opencode.es.entity.LoadStats;
+import com.abasecode.opencode.es.util.RawJsonData;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.getId;
+import static com.abasecode.opencode.es.util.ElasticsearchUtil.toJsonBytes;
+
+/**
+ * Parallel partitioned loader, for index and delete.
+ * The source is read once by the calling thread and split into lanes by the hash of the doc id.
+ * Every lane cuts its docs into bulk batches and sends them one after another on its own thread,
+ * so lanes run in parallel while writes of the same id keep their order.
+ * Each lane holds at most two batches, the caller blocks when a lane is full.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchParallelLoader<T extends BaseT> {
+
+    private final static int DEFAULT_BATCH_SIZE = 1000;
+    private final static long DEFAULT_BATCH_BYTES = 5 * 1024 * 1024;
+    private final static int DEFAULT_MAX_RETRIES = 3;
+    private final static long DEFAULT_BACKOFF = 100;
+    private final static int QUEUE_DEPTH = 2;
+
+    private final ElasticsearchBaseClient<T> baseClient;
+    private final JsonpMapper mapper;
+    private final int parallelism;
+    private final int batchSize;
+    private final long batchBytes;
+    private final int maxRetries;
+
+    private Consumer<LoadStats> progressListener;
+    private BiConsumer<String, String> failureListener;
+
+    /**
+     * Instantiation with default batch limits
+     *
+     * @param baseClient  ElasticsearchBaseClient
+     * @param parallelism number of lanes, bulk requests in flight
+     */
+    public ElasticsearchParallelLoader(ElasticsearchBaseClient<T> baseClient, int parallelism) {
+        this(baseClient, parallelism, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_BYTES, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient  ElasticsearchBaseClient
+     * @param parallelism number of lanes, bulk requests in flight
+     * @param batchSize   max docs per bulk request
+     * @param batchBytes  max estimated bytes per bulk request
+     * @param maxRetries  retry budget of rejected items, see ElasticsearchBaseClient.bulkWithRetry
+     */
+    public ElasticsearchParallelLoader(ElasticsearchBaseClient<T> baseClient, int parallelism,
+                                       int batchSize, long batchBytes, int maxRetries) {
+        if (parallelism <= 0 || batchSize <= 0 || batchBytes <= 0) {
+            throw new IllegalArgumentException("parallelism, batchSize and batchBytes must be positive！");
+        }
+        this.baseClient = baseClient;
+        this.mapper = baseClient.getTransport().jsonpMapper();
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * set progress listener, called on the lane threads after every bulk request with the totals so far
+     *
+     * @param progressListener Consumer<LoadStats>
+     * @return ElasticsearchParallelLoader
+     */
+    public ElasticsearchParallelLoader<T> setProgressListener(Consumer<LoadStats> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * set failure listener, called with id and reason of every failed doc,
+     * failed docs of a batch sharing an id, or without id, are reported once
+     *
+     * @param failureListener BiConsumer<String, String>
+     * @return ElasticsearchParallelLoader
+     */
+    public ElasticsearchParallelLoader<T> setFailureListener(BiConsumer<String, String> failureListener) {
+        this.failureListener = failureListener;
+        return this;
+    }
+
+    /**
+     * load docs from stream, the stream is closed
+     *
+     * @param index  index
+     * @param source Stream<T>
+     * @return LoadStats
+     * @throws IOException
+     */
+    public LoadStats load(String index, Stream<T> source) throws IOException {
+        try (Stream<T> stream = source) {
+            return load(index, stream.iterator());
+        }
+    }
+
+    /**
+     * load docs from iterator
+     *
+     * @param index  index
+     * @param source Iterator<T>
+     * @return LoadStats
+     * @throws IOException
+     */
+    public LoadStats load(String index, Iterator<T> source) throws IOException {
+        Run run = new Run();
+        try {
+            while (source.hasNext()) {
+                T t = source.next();
+                RawJsonData document = new RawJsonData(toJsonBytes(t, mapper));
+                run.add(t.getId(), BulkOperation.of(o -> o.index(i -> i
+                                .index(index)
+                                .id(t.getId())
+                                .document(document))),
+                        ElasticsearchBulkIngester.estimate(index, t.getId()) + document.length());
+            }
+            return run.finish();
+        } finally {
+            run.shutdown();
+        }
+    }
+
+    /**
+     * delete docs by id stream, the stream is closed
+     *
+     * @param index index
+     * @param ids   Stream<String>
+     * @return LoadStats
+     * @throws IOException
+     */
+    public LoadStats delete(String index, Stream<String> ids) throws IOException {
+        try (Stream<String> stream = ids) {
+            return delete(index, stream.iterator());
+        }
+    }
+
+    /**
+     * delete docs by id iterator, e.g. a file or a database cursor.
+     * Ids are cut into bounded bulk delete chunks, memory does not depend on the number of ids.
+     * Ids not found are counted as docs, they are not failures.
+     *
+     * @param index index
+     * @param ids   Iterator<String>
+     * @return LoadStats
+     * @throws IOException
+     */
+    public LoadStats delete(String index, Iterator<String> ids) throws IOException {
+        Run run = new Run();
+        try {
+            while (ids.hasNext()) {
+                String id = ids.next();
+                run.add(id, BulkOperation.of(o -> o.delete(d -> d
+                                .index(index)
+                                .id(id))),
+                        ElasticsearchBulkIngester.estimate(index, id));
+            }
+            return run.finish();
+        } finally {
+            run.shutdown();
+        }
+    }
+
+    /**
+     * one load, lanes and counters
+     */
+    class Run {
+        private final long start = System.currentTimeMillis();
+        private final List<Lane> lanes = new ArrayList<>(parallelism);
+        private final AtomicLong docs = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retried = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private int next = 0;
+
+        Run() {
+            for (int i = 0; i < parallelism; i++) {
+                lanes.add(new Lane(i));
+            }
+        }
+
+        /**
+         * route operation to the lane of its id, docs without id are spread round robin
+         *
+         * @param id        doc id
+         * @param operation BulkOperation
+         * @param size      estimated bytes
+         * @throws IOException
+         */
+        void add(String id, BulkOperation operation, long size) throws IOException {
+            int lane = id == null ? Math.floorMod(next++, parallelism) : Math.floorMod(id.hashCode(), parallelism);
+            lanes.get(lane).add(operation, size);
+        }
+
+        /**
+         * send the remaining batches and wait for all lanes
+         *
+         * @return LoadStats
+         * @throws IOException
+         */
+        LoadStats finish() throws IOException {
+            for (Lane lane : lanes) {
+                lane.send();
+            }
+            for (Lane lane : lanes) {
+                lane.await();
+            }
+            return stats();
+        }
+
+        void shutdown() {
+            for (Lane lane : lanes) {
+                lane.executor.shutdownNow();
+            }
+        }
+
+        LoadStats stats() {
+            return new LoadStats()
+                    .setDocs(docs.get())
+                    .setFailed(failed.get())
+                    .setRetried(retried.get())
+                    .setBatches(batches.get())
+                    .setBytes(bytes.get())
+                    .setElapsed(System.currentTimeMillis() - start);
+        }
+
+        /**
+         * execute one batch, called on the lane thread.
+         * The listeners are called after the counters are updated, an exception of a listener does not change them
+         *
+         * @param batch operations
+         * @param size  estimated bytes
+         */
+        void execute(List<BulkOperation> batch, long size) {
+            BulkResult result = null;
+            Exception error = null;
+            try {
+                result = baseClient.bulkWithRetry(batch, maxRetries, DEFAULT_BACKOFF);
+            } catch (Exception e) {
+                error = e;
+            }
+            // counted from the batch, failed ids of docs without id or with the same id collapse in BulkResult.failed
+            long written = result == null ? 0 : result.getSucceeded().size() + result.getExisted().size();
+            docs.addAndGet(written);
+            failed.addAndGet(batch.size() - written);
+            if (result != null) {
+                retried.addAndGet(result.getRetried().size());
+            }
+            batches.incrementAndGet();
+            bytes.addAndGet(size);
+            try {
+                if (failureListener != null) {
+                    if (result != null) {
+                        result.getFailed().forEach(failureListener);
+                    } else {
+                        String reason = error.toString();
+                        batch.stream().forEach(o -> failureListener.accept(getId(o), reason));
+                    }
+                }
+            } finally {
+                if (progressListener != null) {
+                    progressListener.accept(stats());
+                }
+            }
+        }
+
+        /**
+         * one lane, batches run in order on a single thread
+         */
+        class Lane {
+            private final ExecutorService executor;
+            private final Semaphore queue = new Semaphore(QUEUE_DEPTH);
+            private List<BulkOperation> batch = new ArrayList<>();
+            private long size = 0;
+
+            Lane(int number) {
+                this.executor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "es-parallel-loader-" + number);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+
+            void add(BulkOperation operation, long operationSize) throws IOException {
+                batch.add(operation);
+                size += operationSize;
+                if (batch.size() >= batchSize || size >= batchBytes) {
+                    send();
+                }
+            }
+
+            void send() throws IOException {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                List<BulkOperation> operations = batch;
+                long operationsSize = size;
+                batch = new ArrayList<>();
+                size = 0;
+                acquire(1);
+                executor.execute(() -> {
+                    try {
+                        execute(operations, operationsSize);
+                    } finally {
+                        queue.release();
+                    }
+                });
+            }
+
+            void await() throws IOException {
+                acquire(QUEUE_DEPTH);
+                queue.release(QUEUE_DEPTH);
+            }
+
+            private void acquire(int permits) throws IOException {
+                try {
+                    queue.acquire(permits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for bulk requests！");
+                }
+            }
+        }
+    }
+}
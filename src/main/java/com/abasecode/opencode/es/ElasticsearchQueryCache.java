@@ -0,0 +1,276 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.json.JsonpUtils;
+import com.abasecode.opencode.es.entity.QueryCacheStats;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side cache of query results.
+ * Entries are keyed by index, normalized json, page and class, they live for the ttl of their index
+ * and the least recently used entry is dropped when maxEntries is reached.
+ * A cached value is returned to every caller as it is, ElasticsearchBaseClient caches the hits as json bytes
+ * and decodes them for each caller, so returned objects can be modified.
+ * Writes through the same ElasticsearchBaseClient invalidate all entries of the written index.
+ * A query running while its index is written is not cached, so an invalidation is not undone by a slow query.
+ * Writes become visible in elasticsearch after the refresh only, a query between the write and the refresh
+ * can cache the old result for up to the ttl.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchQueryCache {
+
+    private final static JsonProvider PROVIDER = JsonpUtils.provider();
+
+    private final int maxEntries;
+    private final long defaultTtl;
+    private final Map<String, Long> ttls = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Instantiation
+     *
+     * @param maxEntries max entries
+     * @param defaultTtl ttl of indices without own ttl, milliseconds
+     */
+    public ElasticsearchQueryCache(int maxEntries, long defaultTtl) {
+        if (maxEntries <= 0 || defaultTtl < 0) {
+            throw new IllegalArgumentException("maxEntries must be positive and defaultTtl cannot be negative！");
+        }
+        this.maxEntries = maxEntries;
+        this.defaultTtl = defaultTtl;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > ElasticsearchQueryCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * set ttl of an index, 0 turns off caching of the index
+     *
+     * @param index index
+     * @param ttl   ttl, milliseconds
+     * @return ElasticsearchQueryCache
+     */
+    public ElasticsearchQueryCache setTtl(String index, long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl cannot be negative！");
+        }
+        ttls.put(index, ttl);
+        return this;
+    }
+
+    /**
+     * get from cache, or load and cache
+     *
+     * @param index  index
+     * @param key    key, see key()
+     * @param loader query
+     * @return R
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R get(String index, String key, Loader<R> loader) throws IOException {
+        long ttl = ttls.getOrDefault(index, defaultTtl);
+        if (ttl == 0) {
+            return loader.load();
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    hits.incrementAndGet();
+                    return (R) entry.value;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        long generation = generation(index).get();
+        R value = loader.load();
+        if (value != null) {
+            synchronized (entries) {
+                if (generation(index).get() == generation) {
+                    entries.put(key, new CacheEntry(index, value, now + ttl));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * drop all entries of an index
+     *
+     * @param index index
+     */
+    public void invalidate(String index) {
+        synchronized (entries) {
+            generation(index).incrementAndGet();
+            int size = entries.size();
+            entries.values().removeIf(a -> a.index.equals(index));
+            invalidations.addAndGet(size - entries.size());
+        }
+    }
+
+    /**
+     * drop all entries
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            generations.values().forEach(AtomicLong::incrementAndGet);
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    /**
+     * get statistics
+     *
+     * @return QueryCacheStats
+     */
+    public QueryCacheStats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new QueryCacheStats()
+                .setHits(hits.get())
+                .setMisses(misses.get())
+                .setEvictions(evictions.get())
+                .setInvalidations(invalidations.get())
+                .setSize(size);
+    }
+
+    /**
+     * build key, the json is normalized so that formatting does not matter
+     *
+     * @param index       index
+     * @param json        json
+     * @param pageRequest pageRequest, nullable
+     * @param clazz       class
+     * @return String
+     * @throws IOException
+     */
+    public static String key(String index, String json, PageRequest pageRequest, Class<?> clazz) throws IOException {
+        StringBuilder key = new StringBuilder(json == null ? 64 : json.length() + 64)
+                .append(index).append('|')
+                .append(clazz.getName()).append('|');
+        if (pageRequest != null) {
+            key.append(pageRequest.getPageNumber()).append(',').append(pageRequest.getPageSize());
+        }
+        return key.append('|').append(normalize(json)).toString();
+    }
+
+    /**
+     * compact json, whitespace is removed
+     *
+     * @param json json
+     * @return String
+     * @throws IOException
+     */
+    private static String normalize(String json) throws IOException {
+        if (null == json || json.isEmpty()) {
+            return "";
+        }
+        StringWriter writer = new StringWriter(json.length());
+        try (JsonParser parser = PROVIDER.createParser(new StringReader(json));
+             JsonGenerator generator = PROVIDER.createGenerator(writer)) {
+            String name = null;
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                switch (event) {
+                    case KEY_NAME:
+                        name = parser.getString();
+                        continue;
+                    case START_OBJECT:
+                        if (name == null) {
+                            generator.writeStartObject();
+                        } else {
+                            generator.writeStartObject(name);
+                        }
+                        break;
+                    case START_ARRAY:
+                        if (name == null) {
+                            generator.writeStartArray();
+                        } else {
+                            generator.writeStartArray(name);
+                        }
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        generator.writeEnd();
+                        break;
+                    default:
+                        if (name == null) {
+                            generator.write(parser.getValue());
+                        } else {
+                            generator.write(name, parser.getValue());
+                        }
+                }
+                name = null;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("json is not valid！", e);
+        }
+        return writer.toString();
+    }
+
+    private AtomicLong generation(String index) {
+        return generations.computeIfAbsent(index, a -> new AtomicLong());
+    }
+
+    /**
+     * query behind a cache entry
+     */
+    public interface Loader<R> {
+        /**
+         * run the query
+         *
+         * @return R
+         * @throws IOException
+         */
+        R load() throws IOException;
+    }
+
+    /**
+     * cache entry
+     */
+    private static class CacheEntry {
+        private final String index;
+        private final Object value;
+        private final long expires;
+
+        CacheEntry(String index, Object value, long expires) {
+            this.index = index;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
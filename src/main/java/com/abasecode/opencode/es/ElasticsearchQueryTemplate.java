@@ -0,0 +1,376 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.SimpleJsonpMapper;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonLocation;
+import jakarta.json.stream.JsonParser;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Compiled json query with placeholders.
+ * The json is parsed once into a list of json events, a string value "{{name}}" is a placeholder.
+ * Binding replaces the placeholders with the parameter values and replays the events into the
+ * request builder, the json text is not parsed again and no string is built.
+ * A parameter value can be a string, number, boolean, null, Map, Collection or array,
+ * so a placeholder can stand for a whole clause as well. Placeholders inside a longer string are not replaced.
+ * <p>
+ * {"query": {"term": {"brand": "{{brand}}"}}}
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchQueryTemplate {
+
+    private final static String PLACEHOLDER_START = "{{";
+    private final static String PLACEHOLDER_END = "}}";
+    private final static JsonpMapper MAPPER = SimpleJsonpMapper.INSTANCE_REJECT_UNKNOWN_FIELDS;
+    private final static JsonProvider PROVIDER = JsonpUtils.provider();
+
+    private final JsonParser.Event[] events;
+    private final Object[] values;
+    private final Set<String> parameters;
+
+    /**
+     * compile json
+     *
+     * @param json json with placeholders
+     * @return ElasticsearchQueryTemplate
+     * @throws IOException
+     */
+    public static ElasticsearchQueryTemplate compile(String json) throws IOException {
+        if (null == json || json.isEmpty()) {
+            throw new IOException("json cannot be empty！");
+        }
+        List<JsonParser.Event> events = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        Set<String> parameters = new LinkedHashSet<>();
+        try (JsonParser parser = MAPPER.jsonProvider().createParser(new StringReader(json))) {
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                Object value = null;
+                if (event == JsonParser.Event.KEY_NAME) {
+                    value = parser.getString();
+                } else if (event == JsonParser.Event.VALUE_NUMBER) {
+                    value = parser.getBigDecimal();
+                } else if (event == JsonParser.Event.VALUE_STRING) {
+                    String s = parser.getString();
+                    if (s.length() > PLACEHOLDER_START.length() + PLACEHOLDER_END.length()
+                            && s.startsWith(PLACEHOLDER_START) && s.endsWith(PLACEHOLDER_END)) {
+                        Placeholder placeholder = new Placeholder(s.substring(PLACEHOLDER_START.length(), s.length() - PLACEHOLDER_END.length()).trim());
+                        parameters.add(placeholder.name);
+                        value = placeholder;
+                    } else {
+                        value = s;
+                    }
+                }
+                events.add(event);
+                values.add(value);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("json is not valid！", e);
+        }
+        return new ElasticsearchQueryTemplate(events.toArray(new JsonParser.Event[0]), values.toArray(), parameters);
+    }
+
+    private ElasticsearchQueryTemplate(JsonParser.Event[] events, Object[] values, Set<String> parameters) {
+        this.events = events;
+        this.values = values;
+        this.parameters = Collections.unmodifiableSet(parameters);
+    }
+
+    /**
+     * get placeholder names
+     *
+     * @return Set<String>
+     */
+    public Set<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * bind parameters to a search request
+     *
+     * @param index       index
+     * @param params      parameter values by placeholder name
+     * @param pageRequest pageRequest, nullable
+     * @return SearchRequest
+     * @throws IOException
+     */
+    public SearchRequest bind(String index, Map<String, ?> params, PageRequest pageRequest) throws IOException {
+        JsonParser parser = parser(params);
+        if (pageRequest == null) {
+            return SearchRequest.of(a -> a
+                    .index(index)
+                    .withJson(parser, MAPPER)
+                    .ignoreUnavailable(true));
+        }
+        return SearchRequest.of(a -> a
+                .index(index)
+                .withJson(parser, MAPPER)
+                .ignoreUnavailable(true)
+                .size(ElasticsearchBaseClient.getPageSize(pageRequest))
+                .from(ElasticsearchBaseClient.getFrom(pageRequest)));
+    }
+
+    /**
+     * bind parameters to a json parser, e.g. for withJson of other request builders
+     *
+     * @param params parameter values by placeholder name
+     * @return JsonParser
+     * @throws IOException
+     */
+    public JsonParser parser(Map<String, ?> params) throws IOException {
+        Map<String, ?> map = params == null ? Collections.emptyMap() : params;
+        for (String name : parameters) {
+            if (!map.containsKey(name)) {
+                throw new IOException("parameter " + name + " is missing！");
+            }
+        }
+        List<JsonParser.Event> boundEvents = new ArrayList<>(events.length + 8);
+        List<Object> boundValues = new ArrayList<>(events.length + 8);
+        for (int i = 0; i < events.length; i++) {
+            if (values[i] instanceof Placeholder) {
+                addValue(map.get(((Placeholder) values[i]).name), boundEvents, boundValues);
+            } else {
+                boundEvents.add(events[i]);
+                boundValues.add(values[i]);
+            }
+        }
+        return new EventParser(boundEvents, boundValues);
+    }
+
+    /**
+     * add the events of a java value
+     *
+     * @param value  value
+     * @param events events
+     * @param values values
+     */
+    private static void addValue(Object value, List<JsonParser.Event> events, List<Object> values) {
+        if (value == null) {
+            add(JsonParser.Event.VALUE_NULL, null, events, values);
+        } else if (value instanceof Boolean) {
+            add((Boolean) value ? JsonParser.Event.VALUE_TRUE : JsonParser.Event.VALUE_FALSE, null, events, values);
+        } else if (value instanceof BigDecimal) {
+            add(JsonParser.Event.VALUE_NUMBER, value, events, values);
+        } else if (value instanceof Number) {
+            add(JsonParser.Event.VALUE_NUMBER, new BigDecimal(value.toString()), events, values);
+        } else if (value instanceof Map) {
+            add(JsonParser.Event.START_OBJECT, null, events, values);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                add(JsonParser.Event.KEY_NAME, String.valueOf(entry.getKey()), events, values);
+                addValue(entry.getValue(), events, values);
+            }
+            add(JsonParser.Event.END_OBJECT, null, events, values);
+        } else if (value instanceof Iterable || value instanceof Object[]) {
+            add(JsonParser.Event.START_ARRAY, null, events, values);
+            Iterable<?> iterable = value instanceof Iterable ? (Iterable<?>) value : Arrays.asList((Object[]) value);
+            for (Object item : iterable) {
+                addValue(item, events, values);
+            }
+            add(JsonParser.Event.END_ARRAY, null, events, values);
+        } else {
+            add(JsonParser.Event.VALUE_STRING, value.toString(), events, values);
+        }
+    }
+
+    private static void add(JsonParser.Event event, Object value, List<JsonParser.Event> events, List<Object> values) {
+        events.add(event);
+        values.add(value);
+    }
+
+    /**
+     * placeholder of a parameter
+     */
+    private static class Placeholder {
+        private final String name;
+
+        Placeholder(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * json parser replaying events
+     */
+    private static class EventParser implements JsonParser {
+        private final List<Event> events;
+        private final List<Object> values;
+        private int position = -1;
+
+        EventParser(List<Event> events, List<Object> values) {
+            this.events = events;
+            this.values = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position + 1 < events.size();
+        }
+
+        @Override
+        public Event next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return events.get(++position);
+        }
+
+        @Override
+        public Event currentEvent() {
+            return position < 0 ? null : events.get(position);
+        }
+
+        @Override
+        public String getString() {
+            Object value = values.get(position);
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).toString();
+            }
+            if (!(value instanceof String)) {
+                throw new IllegalStateException("current event is not a string or number: " + currentEvent());
+            }
+            return (String) value;
+        }
+
+        @Override
+        public boolean isIntegralNumber() {
+            return number().scale() <= 0;
+        }
+
+        @Override
+        public int getInt() {
+            return number().intValue();
+        }
+
+        @Override
+        public long getLong() {
+            return number().longValue();
+        }
+
+        @Override
+        public BigDecimal getBigDecimal() {
+            return number();
+        }
+
+        @Override
+        public JsonLocation getLocation() {
+            return new JsonLocation() {
+                @Override
+                public long getLineNumber() {
+                    return -1;
+                }
+
+                @Override
+                public long getColumnNumber() {
+                    return -1;
+                }
+
+                @Override
+                public long getStreamOffset() {
+                    return position;
+                }
+            };
+        }
+
+        @Override
+        public JsonObject getObject() {
+            if (currentEvent() != Event.START_OBJECT) {
+                throw new IllegalStateException("current event is not START_OBJECT: " + currentEvent());
+            }
+            return (JsonObject) getValue();
+        }
+
+        @Override
+        public JsonArray getArray() {
+            if (currentEvent() != Event.START_ARRAY) {
+                throw new IllegalStateException("current event is not START_ARRAY: " + currentEvent());
+            }
+            return (JsonArray) getValue();
+        }
+
+        @Override
+        public JsonValue getValue() {
+            JsonProvider provider = PROVIDER;
+            switch (currentEvent()) {
+                case START_OBJECT:
+                    JsonObjectBuilder object = provider.createObjectBuilder();
+                    while (next() != Event.END_OBJECT) {
+                        String key = getString();
+                        next();
+                        object.add(key, getValue());
+                    }
+                    return object.build();
+                case START_ARRAY:
+                    JsonArrayBuilder array = provider.createArrayBuilder();
+                    while (next() != Event.END_ARRAY) {
+                        array.add(getValue());
+                    }
+                    return array.build();
+                case VALUE_STRING:
+                    return provider.createValue(getString());
+                case VALUE_NUMBER:
+                    return provider.createValue(number());
+                case VALUE_TRUE:
+                    return JsonValue.TRUE;
+                case VALUE_FALSE:
+                    return JsonValue.FALSE;
+                case VALUE_NULL:
+                    return JsonValue.NULL;
+                default:
+                    throw new IllegalStateException("current event is not a value: " + currentEvent());
+            }
+        }
+
+        @Override
+        public void skipObject() {
+            skip(Event.START_OBJECT, Event.END_OBJECT);
+        }
+
+        @Override
+        public void skipArray() {
+            skip(Event.START_ARRAY, Event.END_ARRAY);
+        }
+
+        @Override
+        public void close() {
+            position = events.size();
+        }
+
+        private void skip(Event start, Event end) {
+            int depth = 1;
+            while (depth > 0 && hasNext()) {
+                Event event = next();
+                if (event == start) {
+                    depth++;
+                } else if (event == end) {
+                    depth--;
+                }
+            }
+        }
+
+        private BigDecimal number() {
+            Object value = values.get(position);
+            if (!(value instanceof BigDecimal)) {
+                throw new IllegalStateException("current event is not a number: " + currentEvent());
+            }
+            return (BigDecimal) value;
+        }
+    }
+}
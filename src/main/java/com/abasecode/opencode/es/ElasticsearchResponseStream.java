@@ -0,0 +1,241 @@
+package com.abasecode.opencode.es;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Response body of a low level request read as a stream while it arrives.
+ * The I/O thread writes the body into a bounded buffer and suspends the connection when it is full,
+ * the calling thread reads it, so heap use is bounded by the buffer whatever the body size.
+ * A reader slower than the socket timeout of the rest client fails the request.
+ * The body of an error status is buffered, the request fails with the ResponseException of the rest client.
+ * Closing the stream before the end cancels the request.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+class ElasticsearchResponseStream extends InputStream {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_SUCCESS_STATUS = 299;
+
+    private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+    private final InputStream input = new ContentInputStream(buffer);
+    private final CompletableFuture<HttpResponse> head = new CompletableFuture<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private Cancellable cancellable;
+    private volatile boolean closed = false;
+
+    private ElasticsearchResponseStream() {
+    }
+
+    /**
+     * send the request, return when the status and headers are received
+     *
+     * @param restClient RestClient
+     * @param request    Request
+     * @return ElasticsearchResponseStream
+     * @throws IOException if the request fails, ResponseException if the status is not 2xx
+     */
+    static ElasticsearchResponseStream open(RestClient restClient, Request request) throws IOException {
+        ElasticsearchResponseStream stream = new ElasticsearchResponseStream();
+        RequestOptions.Builder options = request.getOptions().toBuilder();
+        options.setHttpAsyncResponseConsumerFactory(() -> stream.new Consumer());
+        request.setOptions(options);
+        stream.cancellable = restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                stream.fail(exception);
+            }
+        });
+        await(stream, stream.head);
+        return stream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        try {
+            int b = input.read();
+            return b == -1 ? end() : b;
+        } catch (IOException e) {
+            return aborted(e);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        try {
+            int n = input.read(b, off, len);
+            return n == -1 ? end() : n;
+        } catch (IOException e) {
+            return aborted(e);
+        }
+    }
+
+    /**
+     * cancel the request if the body is not read to the end
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (!done.isDone()) {
+            cancellable.cancel();
+        }
+        buffer.shutdown();
+    }
+
+    /**
+     * end of the buffer, wait for the end of the request and throw its failure
+     *
+     * @return int, -1
+     * @throws IOException
+     */
+    private int end() throws IOException {
+        await(this, done);
+        return -1;
+    }
+
+    /**
+     * the buffer stopped a read: shut down by fail, closed by the caller, or the reading thread was interrupted.
+     * The buffer clears the interrupt flag, it is restored and the request is cancelled
+     *
+     * @param e exception of the buffer
+     * @return int, -1 if the request has ended
+     * @throws IOException
+     */
+    private int aborted(IOException e) throws IOException {
+        if (done.isDone()) {
+            return end();
+        }
+        if (closed) {
+            throw new IOException("response stream is closed！", e);
+        }
+        close();
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted = new InterruptedIOException("interrupted while reading response！");
+        interrupted.initCause(e);
+        throw interrupted;
+    }
+
+    private static <R> R await(ElasticsearchResponseStream stream, CompletableFuture<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            stream.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for response！");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("response cannot be read！", cause);
+        }
+    }
+
+    private void fail(Exception exception) {
+        head.completeExceptionally(exception);
+        if (done.completeExceptionally(exception)) {
+            buffer.shutdown();
+        }
+    }
+
+    /**
+     * consumer of one attempt of the rest client, a 2xx body goes into the shared buffer
+     */
+    private class Consumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+        private HttpResponse response;
+        private ContentType contentType;
+        private ByteArrayOutputStream error;
+        private boolean streaming = false;
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            if (head.isDone()) {
+                // a retry on another node cannot continue a body already handed out
+                throw new IOException("response stream cannot be retried！");
+            }
+            this.response = response;
+            if (response.getStatusLine().getStatusCode() > MAX_SUCCESS_STATUS) {
+                error = new ByteArrayOutputStream();
+            }
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+            if (error != null) {
+                this.contentType = contentType;
+                return;
+            }
+            BasicHttpEntity stream = new BasicHttpEntity();
+            stream.setContentType(entity.getContentType());
+            stream.setContentLength(entity.getContentLength());
+            stream.setContent(ElasticsearchResponseStream.this);
+            response.setEntity(stream);
+            streaming = true;
+            head.complete(response);
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            if (error == null) {
+                buffer.consumeContent(decoder, ioControl);
+                return;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            while (decoder.read(bytes) > 0) {
+                error.write(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            if (error != null) {
+                // the rest client fails or retries the request with this response
+                response.setEntity(new ByteArrayEntity(error.toByteArray(), contentType));
+                return response;
+            }
+            buffer.close();
+            head.complete(response);
+            done.complete(null);
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            // before the body is handed out the rest client retries or fails the request itself
+            if (streaming && getResult() == null) {
+                fail(getException() != null ? getException() : new IOException("request is cancelled！"));
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.StoredScript;
+import co.elastic.clients.elasticsearch.core.GetScriptResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of stored scripts deployed by this client.
+ * A script is checked against the cluster the first time it is registered, and put only when it is
+ * missing or its language or source has changed. The id and a content hash are kept locally,
+ * registering the same content again sends no request.
+ * A different script found in the cluster is kept unless force is set, and cached with its own content.
+ * A script deleted or changed by another client is not noticed until it is forgotten,
+ * callers forget a script when a query using it fails.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchScriptRegistry {
+
+    private final static int NOT_FOUND = 404;
+
+    private final ElasticsearchBaseClient<?> baseClient;
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient ElasticsearchBaseClient
+     */
+    public ElasticsearchScriptRegistry(ElasticsearchBaseClient<?> baseClient) {
+        this.baseClient = baseClient;
+    }
+
+    /**
+     * register a script, deploy it if it is missing in the cluster
+     *
+     * @param scriptId     script id
+     * @param scriptSource script source
+     * @param language     script language
+     * @param force        redeploy if the script in the cluster differs
+     * @return boolean, true if the script was put
+     * @throws IOException
+     */
+    public boolean register(String scriptId, String scriptSource, String language, boolean force) throws IOException {
+        if (null == scriptId || scriptId.isEmpty()) {
+            throw new IOException("scriptId cannot be empty！");
+        }
+        String hash = hash(language, scriptSource);
+        if (hash.equals(hashes.get(scriptId))) {
+            return false;
+        }
+        synchronized (this) {
+            if (hash.equals(hashes.get(scriptId))) {
+                return false;
+            }
+            ElasticsearchClient client = baseClient.getClient();
+            GetScriptResponse response = client.getScript(a -> a.id(scriptId));
+            StoredScript script = response.script();
+            String deployed = response.found() ? hash(script.lang(), script.source()) : null;
+            boolean put = deployed == null || (force && !hash.equals(deployed));
+            if (put) {
+                client.putScript(r -> r.id(scriptId)
+                        .script(s -> s
+                                .lang(language)
+                                .source(scriptSource)));
+            }
+            // a different script kept without force is cached as it is in the cluster
+            hashes.put(scriptId, put ? hash : deployed);
+            return put;
+        }
+    }
+
+    /**
+     * delete a script from the cluster and the registry
+     *
+     * @param scriptId script id
+     * @return boolean, false if the script does not exist
+     * @throws IOException
+     */
+    public boolean delete(String scriptId) throws IOException {
+        hashes.remove(scriptId);
+        try {
+            return baseClient.getClient().deleteScript(a -> a.id(scriptId)).acknowledged();
+        } catch (ElasticsearchException e) {
+            if (e.status() == NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * is the script registered by this client
+     *
+     * @param scriptId script id
+     * @return boolean
+     */
+    public boolean isRegistered(String scriptId) {
+        return hashes.containsKey(scriptId);
+    }
+
+    /**
+     * is the script registered by this client with this content
+     *
+     * @param scriptId     script id
+     * @param scriptSource script source
+     * @param language     script language
+     * @return boolean
+     */
+    public boolean isRegistered(String scriptId, String scriptSource, String language) {
+        return hash(language, scriptSource).equals(hashes.get(scriptId));
+    }
+
+    /**
+     * record a script deployed or verified outside of register, e.g. by the async client
+     *
+     * @param scriptId     script id
+     * @param scriptSource script source
+     * @param language     script language
+     */
+    void registered(String scriptId, String scriptSource, String language) {
+        hashes.put(scriptId, hash(language, scriptSource));
+    }
+
+    /**
+     * forget a script, the next register checks the cluster again
+     *
+     * @param scriptId script id
+     */
+    public void forget(String scriptId) {
+        hashes.remove(scriptId);
+    }
+
+    /**
+     * forget all scripts
+     */
+    public void clear() {
+        hashes.clear();
+    }
+
+    /**
+     * sha-256 of language and source
+     *
+     * @param language language
+     * @param source   source
+     * @return String
+     */
+    private static String hash(String language, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest((language + '\n' + source).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iterator over all hits of a query, backed by a point in time and search_after.
+ * A page is fetched only when the previous one is consumed, so every page costs the same
+ * and memory holds one page, no matter how deep the iteration goes.
+ * Query, post_filter, sort, _source, fields and runtime_mappings of the json are used,
+ * from, size and aggregations are ignored. Without sort the hits come in _shard_doc order.
+ * The point in time is closed when the iterator is exhausted or closed.
+ * Errors of the search are thrown as UncheckedIOException.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchSearchAfterIterator<R> implements Iterator<R>, Closeable {
+
+    private final static String DEFAULT_KEEP_ALIVE = "1m";
+    private final static String SHARD_DOC = "_shard_doc";
+    private final static int NOT_FOUND = 404;
+
+    private final ElasticsearchClient client;
+    private final SearchRequest template;
+    private final List<SortOptions> sort;
+    private final SlicedScroll slice;
+    private final int pageSize;
+    private final Time keepAlive;
+    private final boolean ownsPit;
+    private final Class<R> clazz;
+
+    private String pitId;
+    private List<String> searchAfter;
+    private Iterator<Hit<R>> page = Collections.emptyIterator();
+    private boolean exhausted = false;
+    private boolean closed = false;
+
+    /**
+     * open a point in time on the index and iterate all hits of the json query
+     *
+     * @param client   ElasticsearchClient
+     * @param index    index
+     * @param json     json, nullable for match_all
+     * @param pageSize hits per request
+     * @param clazz    class
+     * @return ElasticsearchSearchAfterIterator
+     * @throws IOException
+     */
+    public static <R> ElasticsearchSearchAfterIterator<R> open(ElasticsearchClient client, String index, String json,
+                                                               int pageSize, Class<R> clazz) throws IOException {
+        return open(client, index, parse(json), pageSize, clazz);
+    }
+
+    /**
+     * open a point in time on the index and iterate all hits of a built query
+     *
+     * @param client   ElasticsearchClient
+     * @param index    index
+     * @param template query, index and size are ignored
+     * @param pageSize hits per request
+     * @param clazz    class
+     * @return ElasticsearchSearchAfterIterator
+     * @throws IOException
+     */
+    static <R> ElasticsearchSearchAfterIterator<R> open(ElasticsearchClient client, String index, SearchRequest template,
+                                                        int pageSize, Class<R> clazz) throws IOException {
+        String pitId = openPit(client, index, DEFAULT_KEEP_ALIVE);
+        return new ElasticsearchSearchAfterIterator<>(client, pitId, true, template, null, pageSize, DEFAULT_KEEP_ALIVE, clazz);
+    }
+
+    /**
+     * open a point in time on the index
+     *
+     * @param client    ElasticsearchClient
+     * @param index     index
+     * @param keepAlive keep alive, e.g. 1m
+     * @return String, pit id
+     * @throws IOException
+     */
+    static String openPit(ElasticsearchClient client, String index, String keepAlive) throws IOException {
+        if (null == index || index.isEmpty()) {
+            throw new IOException("index cannot be empty！");
+        }
+        return client.openPointInTime(a -> a
+                .index(index)
+                .keepAlive(k -> k.time(keepAlive))).id();
+    }
+
+    /**
+     * close a point in time, a pit that has expired already is ignored
+     *
+     * @param client ElasticsearchClient
+     * @param pitId  pit id
+     * @throws IOException
+     */
+    static void closePit(ElasticsearchClient client, String pitId) throws IOException {
+        try {
+            client.closePointInTime(a -> a.id(pitId));
+        } catch (ElasticsearchException e) {
+            if (e.status() != NOT_FOUND) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * parse the json query once, pages are built from it
+     *
+     * @param json json, nullable
+     * @return SearchRequest
+     */
+    static SearchRequest parse(String json) {
+        if (null == json || json.isEmpty()) {
+            return SearchRequest.of(a -> a);
+        }
+        return SearchRequest.of(a -> a.withJson(new StringReader(json)));
+    }
+
+    /**
+     * Instantiation on an open point in time
+     *
+     * @param client    ElasticsearchClient
+     * @param pitId     pit id
+     * @param ownsPit   close the pit when the iterator is closed
+     * @param template  parsed query
+     * @param slice     slice of the pit, nullable
+     * @param pageSize  hits per request
+     * @param keepAlive keep alive of the pit, e.g. 1m
+     * @param clazz     class
+     */
+    ElasticsearchSearchAfterIterator(ElasticsearchClient client, String pitId, boolean ownsPit, SearchRequest template,
+                                     SlicedScroll slice, int pageSize, String keepAlive, Class<R> clazz) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive！");
+        }
+        this.client = client;
+        this.pitId = pitId;
+        this.ownsPit = ownsPit;
+        this.template = template;
+        this.sort = template.sort().isEmpty()
+                ? Collections.singletonList(SortOptions.of(s -> s.field(f -> f.field(SHARD_DOC).order(SortOrder.Asc))))
+                : template.sort();
+        this.slice = slice;
+        this.pageSize = pageSize;
+        this.keepAlive = Time.of(t -> t.time(keepAlive));
+        this.clazz = clazz;
+    }
+
+    /**
+     * to stream, closing the stream closes the iterator
+     *
+     * @return Stream<R>
+     */
+    public Stream<R> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!page.hasNext() && !exhausted && !closed) {
+                fetch();
+            }
+            if (!page.hasNext()) {
+                close();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public R next() {
+        return nextHit().source();
+    }
+
+    /**
+     * next hit, with id, sort values and source
+     *
+     * @return Hit<R>
+     */
+    public Hit<R> nextHit() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    /**
+     * close the point in time if it is owned by this iterator
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        page = Collections.emptyIterator();
+        if (ownsPit && pitId != null) {
+            closePit(client, pitId);
+        }
+    }
+
+    /**
+     * fetch the next page after the last sort values
+     *
+     * @throws IOException
+     */
+    private void fetch() throws IOException {
+        SearchResponse<R> response = client.search(s -> {
+            s.pit(p -> p.id(pitId).keepAlive(keepAlive))
+                    .size(pageSize)
+                    .trackTotalHits(t -> t.enabled(false))
+                    .sort(sort)
+                    .query(template.query())
+                    .postFilter(template.postFilter())
+                    .source(template.source());
+            if (!template.fields().isEmpty()) {
+                s.fields(template.fields());
+            }
+            if (!template.runtimeMappings().isEmpty()) {
+                s.runtimeMappings(template.runtimeMappings());
+            }
+            if (slice != null) {
+                s.slice(slice);
+            }
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        }, clazz);
+        if (response.pitId() != null) {
+            pitId = response.pitId();
+        }
+        List<Hit<R>> hits = response.hits().hits();
+        if (hits.size() < pageSize) {
+            exhausted = true;
+        }
+        if (!hits.isEmpty()) {
+            searchAfter = hits.get(hits.size() - 1).sort();
+        }
+        page = hits.iterator();
+    }
+}
@@ -0,0 +1,159 @@
+package com.abasecode.opencode.es;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalescing of identical in-flight reads.
+ * The first caller of a key runs the query, callers arriving with the same key while it runs
+ * wait for it and get the same result instead of sending their own request.
+ * ElasticsearchBaseClient shares the hits as json bytes and decodes them for each caller, callers never share an instance.
+ * Nothing is kept after the query completes, a later call runs a new query, see ElasticsearchQueryCache for caching.
+ * A failure of the query is thrown to every waiting caller.
+ * Coalescing is switched on per method, keys are built from the normalized request by ElasticsearchBaseClient.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchSingleFlight {
+
+    public final static String QUERY_BY_ID = "queryById";
+    public final static String QUERY_BY_JSON = "queryByJson";
+    public final static String QUERY_BY_JSON_WITH_PAGE = "queryByJsonWithPage";
+    public final static List<String> METHODS = Collections.unmodifiableList(Arrays.asList(
+            QUERY_BY_ID, QUERY_BY_JSON, QUERY_BY_JSON_WITH_PAGE));
+
+    private final Set<String> methods = ConcurrentHashMap.newKeySet();
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Instantiation
+     *
+     * @param methods coalesced methods, see METHODS, all if empty
+     */
+    public ElasticsearchSingleFlight(String... methods) {
+        for (String method : methods.length == 0 ? METHODS : Arrays.asList(methods)) {
+            setEnabled(method, true);
+        }
+    }
+
+    /**
+     * switch coalescing of a method on or off
+     *
+     * @param method  method, see METHODS
+     * @param enabled enabled
+     * @return ElasticsearchSingleFlight
+     */
+    public ElasticsearchSingleFlight setEnabled(String method, boolean enabled) {
+        if (!METHODS.contains(method)) {
+            throw new IllegalArgumentException("method " + method + " cannot be coalesced！");
+        }
+        if (enabled) {
+            methods.add(method);
+        } else {
+            methods.remove(method);
+        }
+        return this;
+    }
+
+    /**
+     * is coalescing of a method on
+     *
+     * @param method method
+     * @return boolean
+     */
+    public boolean isEnabled(String method) {
+        return methods.contains(method);
+    }
+
+    /**
+     * run the query, or wait for the identical query in flight
+     *
+     * @param key    key, method and normalized request
+     * @param loader query
+     * @return R
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, ElasticsearchQueryCache.Loader<R> loader) throws IOException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            shared.incrementAndGet();
+            return (R) await(running);
+        }
+        executed.incrementAndGet();
+        try {
+            R value = loader.load();
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * get number of queries sent
+     *
+     * @return long
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * get number of calls served by a query of another caller
+     *
+     * @return long
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * get number of queries in flight
+     *
+     * @return int
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for coalesced query！");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import com.abasecode.opencode.es.entity.BaseT;
+import com.abasecode.opencode.es.entity.ExportStats;
+import com.abasecode.opencode.es.util.RawJsonData;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Parallel sliced export of an index.
+ * One point in time is opened on the index and split into slices, every slice is read with search_after
+ * on a bounded executor. Hits are decoded on the reader threads and passed through a bounded queue
+ * to the sink, which runs on the calling thread only, so the sink does not need to be thread safe.
+ * Readers block when the queue is full, a slow sink slows the readers down instead of filling the memory.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchSlicedExporter<T extends BaseT> {
+
+    private final static int DEFAULT_PAGE_SIZE = 1000;
+    private final static String DEFAULT_KEEP_ALIVE = "5m";
+    private final static int PROGRESS_INTERVAL = 10000;
+    private final static Object END = new Object();
+
+    private final ElasticsearchClient client;
+    private final int slices;
+    private final int parallelism;
+    private final int pageSize;
+    private final String keepAlive;
+
+    private Consumer<ExportStats> progressListener;
+
+    /**
+     * Instantiation, one thread per slice
+     *
+     * @param baseClient ElasticsearchBaseClient
+     * @param slices     number of slices, e.g. the number of shards
+     */
+    public ElasticsearchSlicedExporter(ElasticsearchBaseClient<T> baseClient, int slices) {
+        this(baseClient, slices, slices, DEFAULT_PAGE_SIZE, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient  ElasticsearchBaseClient
+     * @param slices      number of slices
+     * @param parallelism slices read at the same time
+     * @param pageSize    hits per request
+     * @param keepAlive   keep alive of the point in time between two requests, e.g. 5m
+     */
+    public ElasticsearchSlicedExporter(ElasticsearchBaseClient<T> baseClient, int slices, int parallelism,
+                                       int pageSize, String keepAlive) {
+        if (slices <= 0 || parallelism <= 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("slices, parallelism and pageSize must be positive！");
+        }
+        this.client = baseClient.getClient();
+        this.slices = slices;
+        this.parallelism = Math.min(slices, parallelism);
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * set progress listener, called on the calling thread every 10000 docs and when a slice is done
+     *
+     * @param progressListener Consumer<ExportStats>
+     * @return ElasticsearchSlicedExporter
+     */
+    public ElasticsearchSlicedExporter<T> setProgressListener(Consumer<ExportStats> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * export docs of the json query to the sink
+     *
+     * @param index index
+     * @param json  json, nullable for match_all
+     * @param clazz class
+     * @param sink  Consumer<T>
+     * @return ExportStats
+     * @throws IOException
+     */
+    public ExportStats export(String index, String json, Class<T> clazz, Consumer<T> sink) throws IOException {
+        return export(index, json, clazz, t -> t, t -> 0, sink);
+    }
+
+    /**
+     * export the _source of the json query to the sink as json bytes, docs are not bound to a class.
+     * The bytes are copied from the response, no json tree is built
+     *
+     * @param index index
+     * @param json  json, nullable for match_all
+     * @param sink  Consumer<byte[]>
+     * @return ExportStats
+     * @throws IOException
+     */
+    public ExportStats exportRaw(String index, String json, Consumer<byte[]> sink) throws IOException {
+        return export(index, json, RawJsonData.class, RawJsonData::getBytes, b -> b.length, sink);
+    }
+
+    /**
+     * export
+     *
+     * @param index   index
+     * @param json    json
+     * @param clazz   class of _source
+     * @param convert conversion on the reader threads
+     * @param size    bytes of a converted doc
+     * @param sink    sink
+     * @return ExportStats
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private <R, E> ExportStats export(String index, String json, Class<R> clazz, Function<R, E> convert,
+                                      ToLongFunction<E> size, Consumer<E> sink) throws IOException {
+        long start = System.currentTimeMillis();
+        SearchRequest template = ElasticsearchSearchAfterIterator.parse(json);
+        String pitId = ElasticsearchSearchAfterIterator.openPit(client, index, keepAlive);
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(pageSize * parallelism);
+        AtomicInteger number = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "es-sliced-exporter-" + number.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExportStats stats = new ExportStats().setSlices(slices);
+        try {
+            for (int i = 0; i < slices; i++) {
+                ElasticsearchSearchAfterIterator<R> iterator = new ElasticsearchSearchAfterIterator<>(
+                        client, pitId, false, template, slice(i), pageSize, keepAlive, clazz);
+                executor.execute(() -> read(iterator, convert, queue));
+            }
+            int done = 0;
+            while (done < slices) {
+                Object item = take(queue);
+                if (item == END) {
+                    stats.setSlicesDone(++done);
+                    progress(stats, start);
+                } else if (item instanceof Failure) {
+                    throw new IOException("export of slice failed！", ((Failure) item).cause);
+                } else {
+                    E e = (E) item;
+                    sink.accept(e);
+                    stats.setDocs(stats.getDocs() + 1).setBytes(stats.getBytes() + size.applyAsLong(e));
+                    if (stats.getDocs() % PROGRESS_INTERVAL == 0) {
+                        progress(stats, start);
+                    }
+                }
+            }
+            return stats.setElapsed(System.currentTimeMillis() - start);
+        } finally {
+            executor.shutdownNow();
+            ElasticsearchSearchAfterIterator.closePit(client, pitId);
+        }
+    }
+
+    /**
+     * slice of the point in time, null when there is only one
+     *
+     * @param id slice id
+     * @return SlicedScroll
+     */
+    private SlicedScroll slice(int id) {
+        return slices > 1 ? SlicedScroll.of(s -> s.id(id).max(slices)) : null;
+    }
+
+    /**
+     * read one slice into the queue, called on a reader thread
+     *
+     * @param iterator slice iterator
+     * @param convert  conversion
+     * @param queue    queue
+     */
+    private <R, E> void read(ElasticsearchSearchAfterIterator<R> iterator, Function<R, E> convert, BlockingQueue<Object> queue) {
+        try {
+            try {
+                while (iterator.hasNext()) {
+                    R r = iterator.next();
+                    if (r != null) {
+                        queue.put(convert.apply(r));
+                    }
+                }
+                queue.put(END);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                queue.put(new Failure(e));
+            } finally {
+                iterator.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+            // the iterator does not own the point in time, close does not send requests
+        }
+    }
+
+    private void progress(ExportStats stats, long start) {
+        if (progressListener != null) {
+            progressListener.accept(stats.setElapsed(System.currentTimeMillis() - start));
+        }
+    }
+
+    private static Object take(BlockingQueue<Object> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for export！");
+        }
+    }
+
+    /**
+     * failure of a slice
+     */
+    private static class Failure {
+        private final Exception cause;
+
+        Failure(Exception cause) {
+            this.cause = cause;
+        }
+    }
+}
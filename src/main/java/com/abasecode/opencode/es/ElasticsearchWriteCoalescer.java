@@ -0,0 +1,176 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.abasecode.opencode.es.entity.BaseT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Micro-batching of single document writes.
+ * Writes arriving within the window, or until maxDocs are waiting, are sent as one bulk request.
+ * Every caller gets the result of its own document through a future.
+ *
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchWriteCoalescer<T extends BaseT> implements Closeable {
+
+    private final static int CONFLICT = 409;
+
+    private final ElasticsearchAsyncClient client;
+    private final long window;
+    private final int maxDocs;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduled;
+    private volatile boolean closed = false;
+
+    /**
+     * Instantiation
+     *
+     * @param baseClient ElasticsearchBaseClient
+     * @param window     max wait of the first write, milliseconds
+     * @param maxDocs    max docs per bulk request
+     */
+    public ElasticsearchWriteCoalescer(ElasticsearchBaseClient<T> baseClient, long window, int maxDocs) {
+        if (window <= 0 || maxDocs <= 0) {
+            throw new IllegalArgumentException("window and maxDocs must be positive！");
+        }
+        this.client = new ElasticsearchAsyncClient(baseClient.getTransport());
+        this.window = window;
+        this.maxDocs = maxDocs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-write-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * save or update by T.
+     * hasForce=false writes with create, an existing doc is not overwritten
+     *
+     * @param index    index
+     * @param t        T
+     * @param hasForce has force
+     * @return CompletableFuture<String>，updated, created or exists
+     */
+    public CompletableFuture<String> saveOrUpdateDoc(String index, T t, boolean hasForce) {
+        BulkOperation operation = hasForce
+                ? BulkOperation.of(o -> o.index(i -> i.index(index).id(t.getId()).document(t)))
+                : BulkOperation.of(o -> o.create(c -> c.index(index).id(t.getId()).document(t)));
+        Pending p = new Pending(operation);
+        List<Pending> batch = null;
+        synchronized (lock) {
+            if (closed) {
+                p.future.completeExceptionally(new IOException("coalescer is closed！"));
+                return p.future;
+            }
+            pending.add(p);
+            if (pending.size() >= maxDocs) {
+                batch = take();
+            } else if (pending.size() == 1) {
+                scheduled = scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        send(batch);
+        return p.future;
+    }
+
+    /**
+     * send the waiting writes now
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (lock) {
+            batch = take();
+        }
+        send(batch);
+    }
+
+    /**
+     * send the waiting writes and stop the timer, writes afterwards fail
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdown();
+    }
+
+    /**
+     * take the waiting writes, must hold the lock
+     *
+     * @return List<Pending>
+     */
+    private List<Pending> take() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    /**
+     * send one bulk request and complete the futures per item
+     *
+     * @param batch writes
+     */
+    private void send(List<Pending> batch) {
+        if (batch == null) {
+            return;
+        }
+        List<BulkOperation> operations = new ArrayList<>(batch.size());
+        batch.stream().forEach(p -> operations.add(p.operation));
+        client.bulk(BulkRequest.of(b -> b.operations(operations))).whenComplete((r, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                batch.stream().forEach(p -> p.future.completeExceptionally(cause));
+                return;
+            }
+            List<BulkResponseItem> items = r.items();
+            for (int i = 0; i < batch.size(); i++) {
+                Pending p = batch.get(i);
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    p.future.complete(item.result());
+                } else if (item.status() == CONFLICT && p.operation.isCreate()) {
+                    p.future.complete("exists");
+                } else {
+                    p.future.completeExceptionally(new IOException(item.error().type() + ": " + item.error().reason()));
+                }
+            }
+        });
+    }
+
+    /**
+     * one waiting write
+     */
+    private static class Pending {
+        private final BulkOperation operation;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(BulkOperation operation) {
+            this.operation = operation;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.abasecode.opencode.es.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Data
+@Accessors(chain = true)
+public class BulkResult {
+    /**
+     * ids written
+     */
+    private List<String> succeeded = new ArrayList<>();
+    /**
+     * ids skipped by create because the doc exists
+     */
+    private List<String> existed = new ArrayList<>();
+    /**
+     * ids retried at least once after a rejection
+     */
+    private List<String> retried = new ArrayList<>();
+    /**
+     * failed ids and reasons
+     */
+    private Map<String, String> failed = new LinkedHashMap<>();
+}
@@ -0,0 +1,45 @@
+package com.abasecode.opencode.es.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Data
+@Accessors(chain = true)
+public class ExportStats {
+    /**
+     * docs handed to the sink
+     */
+    private long docs;
+    /**
+     * bytes handed to the sink, raw export only
+     */
+    private long bytes;
+    /**
+     * slices of the export
+     */
+    private int slices;
+    /**
+     * slices read completely
+     */
+    private int slicesDone;
+    /**
+     * elapsed time, milliseconds
+     */
+    private long elapsed;
+
+    /**
+     * get docs per second
+     *
+     * @return double
+     */
+    public double getDocsPerSecond() {
+        return elapsed <= 0 ? 0 : docs * 1000.0 / elapsed;
+    }
+}
@@ -0,0 +1,58 @@
+package com.abasecode.opencode.es.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Data
+@Accessors(chain = true)
+public class LoadStats {
+    /**
+     * docs written
+     */
+    private long docs;
+    /**
+     * docs failed
+     */
+    private long failed;
+    /**
+     * docs retried at least once
+     */
+    private long retried;
+    /**
+     * bulk requests sent
+     */
+    private long batches;
+    /**
+     * estimated bytes sent
+     */
+    private long bytes;
+    /**
+     * elapsed time, milliseconds
+     */
+    private long elapsed;
+
+    /**
+     * get docs per second
+     *
+     * @return double
+     */
+    public double getDocsPerSecond() {
+        return elapsed <= 0 ? 0 : (docs + failed) * 1000.0 / elapsed;
+    }
+
+    /**
+     * get MB per second
+     *
+     * @return double
+     */
+    public double getMbPerSecond() {
+        return elapsed <= 0 ? 0 : bytes * 1000.0 / elapsed / 1024 / 1024;
+    }
+}
@@ -0,0 +1,33 @@
+package com.abasecode.opencode.es.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Data
+@Accessors(chain = true)
+public class MgetResult<T> {
+    /**
+     * docs found, in the order of the ids
+     */
+    private List<T> found = new ArrayList<>();
+    /**
+     * ids not found
+     */
+    private List<String> missing = new ArrayList<>();
+    /**
+     * ids failed, with reason
+     */
+    private Map<String, String> failed = new LinkedHashMap<>();
+}
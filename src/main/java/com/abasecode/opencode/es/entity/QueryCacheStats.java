@@ -0,0 +1,45 @@
+package com.abasecode.opencode.es.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@Data
+@Accessors(chain = true)
+public class QueryCacheStats {
+    /**
+     * lookups answered from the cache
+     */
+    private long hits;
+    /**
+     * lookups sent to elasticsearch
+     */
+    private long misses;
+    /**
+     * entries dropped by the size limit
+     */
+    private long evictions;
+    /**
+     * entries dropped by writes
+     */
+    private long invalidations;
+    /**
+     * entries in the cache
+     */
+    private int size;
+
+    /**
+     * get hit rate
+     *
+     * @return double
+     */
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : hits * 1.0 / (hits + misses);
+    }
+}
@@ -1,13 +1,26 @@
 package com.abasecode.opencode.es.util;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperationBase;
 import co.elastic.clients.json.JsonData;
 import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonGenerator;
 import org.apache.http.HttpHost;
 import org.elasticsearch.client.Node;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,6 +33,8 @@ import java.util.List;
  */
 public class ElasticsearchUtil {
 
+    private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
     /**
      * get list<Node> from string list
      *
@@ -56,4 +71,145 @@ public class ElasticsearchUtil {
 
         return JsonData.from(jsonProvider.createParser(input), jsonpMapper);
     }
+
+    /**
+     * serialize value to json bytes
+     *
+     * @param value  value
+     * @param mapper JsonpMapper
+     * @return byte[]
+     */
+    public static byte[] toJsonBytes(Object value, JsonpMapper mapper) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = mapper.jsonProvider().createGenerator(out);
+        mapper.serialize(value, generator);
+        generator.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * read the top level id from json bytes without building the document.
+     * Tokens are scanned until the id is found, nested objects are skipped.
+     *
+     * @param bytes json bytes
+     * @return id, null if absent
+     * @throws IOException
+     */
+    public static String readId(byte[] bytes) throws IOException {
+        return readId(bytes, 0, bytes.length);
+    }
+
+    /**
+     * read the top level id from json bytes without building the document.
+     *
+     * @param bytes  json bytes
+     * @param offset offset
+     * @param length length
+     * @return id, null if absent
+     * @throws IOException
+     */
+    public static String readId(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("json must be an object！");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("id".equals(name) && token.isScalarValue()) {
+                    return token == JsonToken.VALUE_NULL ? null : parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * json bytes on one line, as a document of a bulk body must be.
+     * Bytes without a line break are returned as they are, otherwise the json is parsed and written compact.
+     *
+     * @param bytes json bytes
+     * @return byte[]
+     * @throws IOException if the json with line breaks is invalid
+     */
+    public static byte[] toSingleLine(byte[] bytes) throws IOException {
+        if (!hasLineBreak(bytes)) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes);
+             com.fasterxml.jackson.core.JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            if (parser.nextToken() == null) {
+                throw new IOException("json cannot be empty！");
+            }
+            generator.copyCurrentStructure(parser);
+            if (parser.nextToken() != null) {
+                throw new IOException("json must be one document！");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean hasLineBreak(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get doc id of bulk operation
+     *
+     * @param operation BulkOperation
+     * @return id, null if generated by elasticsearch
+     */
+    public static String getId(BulkOperation operation) {
+        return ((BulkOperationBase) operation._get()).id();
+    }
+
+    /**
+     * get index of bulk operation
+     *
+     * @param operation BulkOperation
+     * @return index, null if the request has a default index
+     */
+    public static String getIndex(BulkOperation operation) {
+        return ((BulkOperationBase) operation._get()).index();
+    }
+
+    /**
+     * get the _source fields a class is decoded from.
+     * With jackson the property names are used, so @JsonProperty and @JsonIgnore are honored,
+     * otherwise the non static and non transient fields of the class and its super classes
+     *
+     * @param clazz  class
+     * @param mapper JsonpMapper
+     * @return List<String>
+     */
+    public static List<String> getSourceFields(Class<?> clazz, JsonpMapper mapper) {
+        List<String> fields = new ArrayList<>();
+        if (mapper instanceof JacksonJsonpMapper) {
+            ObjectMapper objectMapper = ((JacksonJsonpMapper) mapper).objectMapper();
+            for (BeanPropertyDefinition property : objectMapper.getDeserializationConfig()
+                    .introspect(objectMapper.constructType(clazz))
+                    .findProperties()) {
+                if (property.hasSetter() || property.hasField() || property.hasConstructorParameter()) {
+                    fields.add(property.getName());
+                }
+            }
+            return fields;
+        }
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    fields.add(field.getName());
+                }
+            }
+        }
+        return fields;
+    }
 }
@@ -0,0 +1,104 @@
+package com.abasecode.opencode.es.util;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+@JsonDeserialize(using = RawJsonData.Deserializer.class)
+public class RawJsonData implements JsonpSerializable {
+
+    private final byte[] bytes;
+
+    /**
+     * Instantiation
+     *
+     * @param bytes serialized json document, utf-8
+     */
+    public RawJsonData(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * get bytes
+     *
+     * @return byte[]
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * get length
+     *
+     * @return int
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * write the bytes as they are when the generator is jackson,
+     * otherwise replay them through a parser
+     *
+     * @param generator JsonGenerator
+     * @param mapper    JsonpMapper
+     */
+    @Override
+    public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+        if (generator instanceof JacksonJsonpGenerator) {
+            try {
+                ((JacksonJsonpGenerator) generator).jacksonGenerator()
+                        .writeRawValue(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        try (JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(bytes))) {
+            parser.next();
+            generator.write(parser.getValue());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * jackson deserializer copying the tokens of a value into bytes, no object is built.
+     * Used as document class of a search, the _source of the hits stays raw
+     */
+    public static class Deserializer extends JsonDeserializer<RawJsonData> {
+
+        private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+        @Override
+        public RawJsonData deserialize(com.fasterxml.jackson.core.JsonParser parser, DeserializationContext context) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (com.fasterxml.jackson.core.JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+                generator.copyCurrentStructure(parser);
+            }
+            return new RawJsonData(out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import com.abasecode.opencode.es.config.ElasticsearchConfig;
+import com.abasecode.opencode.es.entity.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchAsyncBaseClientTest {
+
+    ElasticsearchAsyncBaseClient<Product> asyncClient;
+    String INDEX_NAME = "product";
+
+    @BeforeEach
+    public void start() {
+        ElasticsearchConfig.EsConfig esConfig = new ElasticsearchConfig.EsConfig();
+        esConfig.setPassword("Es789456");
+        esConfig.setUsername("elastic");
+        esConfig.setUris(Arrays.asList("http://192.168.3.230:9200"));
+        asyncClient = new ElasticsearchAsyncBaseClient<>(new ElasticsearchBaseClient<>(esConfig));
+    }
+
+    @Test
+    void hasIndexExist() {
+        Assertions.assertEquals(true, asyncClient.hasIndexExist(INDEX_NAME).join());
+    }
+
+    @Test
+    void queryById() {
+        Product product = asyncClient.queryById(INDEX_NAME, "1", Product.class).join();
+        Assertions.assertEquals("图书", product.getCategory());
+    }
+
+    @Test
+    void fanOut() {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        String aggJson = "{" +
+                "  \"size\": 0," +
+                "  \"aggs\": {" +
+                "    \"brands\": {" +
+                "      \"terms\": {" +
+                "        \"field\": \"brand\"," +
+                "        \"size\": 10" +
+                "      }" +
+                "    }" +
+                "  }" +
+                "}";
+        CompletableFuture<Page<Product>> page = asyncClient.queryByJsonWithPage(INDEX_NAME, json, 1, 10, Product.class);
+        CompletableFuture<List<StringTermsBucket>> brands = asyncClient.getStringTermsBucketByJson(INDEX_NAME, aggJson, "brands");
+        CompletableFuture.allOf(page, brands).join();
+        page.join().getContent().stream().forEach(a -> System.out.println(a.getId()));
+        brands.join().stream().forEach(a -> System.out.println(a.key() + " 有 " + a.docCount() + " 件"));
+    }
+}
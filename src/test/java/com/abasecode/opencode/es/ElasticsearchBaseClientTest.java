@@ -1,11 +1,14 @@
 package com.abasecode.opencode.es;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
 import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
 import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
 import co.elastic.clients.json.JsonData;
 import co.elastic.clients.json.JsonpMapper;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
@@ -13,8 +16,14 @@ import co.elastic.clients.transport.rest_client.RestClientTransport;
 import com.abasecode.opencode.es.annotation.EnableCodeEs;
 import com.abasecode.opencode.es.config.AutoConfiguration;
 import com.abasecode.opencode.es.config.ElasticsearchConfig;
+import com.abasecode.opencode.es.entity.BulkResult;
+import com.abasecode.opencode.es.entity.Company;
+import com.abasecode.opencode.es.entity.ExportStats;
+import com.abasecode.opencode.es.entity.LoadStats;
+import com.abasecode.opencode.es.entity.MgetResult;
 import com.abasecode.opencode.es.entity.Job;
 import com.abasecode.opencode.es.entity.Product;
+import com.abasecode.opencode.es.entity.ProductSummary;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import jakarta.json.JsonArray;
@@ -39,6 +48,11 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * @author Jon
@@ -164,6 +178,14 @@ public class ElasticsearchBaseClientTest {
         System.out.println(bulkResponse.items().size());
     }
 
+    @Test
+    void deleteBulkWithIterator() throws IOException {
+        Iterator<String> ids = IntStream.range(0, 100000).mapToObj(i -> "retry-" + i).iterator();
+        LoadStats stats = baseClient.deleteBulkWithIterator(INDEX_NAME, ids, 4);
+        System.out.println(stats.getDocsPerSecond());
+        Assertions.assertEquals(100000, stats.getDocs() + stats.getFailed());
+    }
+
     @Test
     void saveOrUpdateDocByJson() throws IOException {
         String json = "{\"id\":\"1\",\"category\":\"图书\",\"brand\":\"南山出版社\",\"price\":79.80,\"title\":\"没有立正何来稍息\"}";
@@ -217,6 +239,22 @@ public class ElasticsearchBaseClientTest {
         Assertions.assertEquals(result, r);
     }
 
+    @Test
+    void saveOrUpdateDocWithCoalescing() throws Exception {
+        baseClient.enableWriteCoalescing(5, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Product product = (Product) new Product().setPrice(BigDecimal.valueOf(i)).setCategory("零食").setBrand("亿滋").setTitle("奥利奥" + i).setId("coalesce-" + i);
+            results.add(executor.submit(() -> baseClient.saveOrUpdateDoc(INDEX_NAME, product, true)));
+        }
+        for (Future<String> result : results) {
+            Assertions.assertNotNull(result.get());
+        }
+        executor.shutdown();
+        baseClient.disableWriteCoalescing();
+    }
+
     @Test
     void saveOrUpdateDocBulkWithJsonFiles() throws IOException {
         String path = "D:\\temp\\es-product\\files";
@@ -236,6 +274,29 @@ public class ElasticsearchBaseClientTest {
         Assertions.assertEquals(3, bulkResponse.items().size());
     }
 
+    @Test
+    void saveOrUpdateDocBulkWithRawJson() throws IOException {
+        List<String> list = new ArrayList<>();
+        list.add("{\"id\":\"11\",\"category\":\"饮料\",\"brand\":\"雀巢\",\"price\":22.8,\"title\":\"奶香拿铁\"}");
+        list.add("{\n  \"id\": \"14\",\n  \"category\": \"饮料\",\n  \"brand\": \"雀巢\",\n  \"price\": 18.5,\n  \"title\": \"多行拿铁\"\n}\n");
+        BulkResponse bulkResponse = baseClient.saveOrUpdateDocBulkWithRawJson(INDEX_NAME, list);
+        Assertions.assertEquals(false, bulkResponse.errors());
+        Assertions.assertEquals(2, bulkResponse.items().size());
+        Assertions.assertEquals("多行拿铁", baseClient.queryById(INDEX_NAME, "14", Product.class).getTitle());
+        list.add("{\n  \"id\": \"15\",\n  \"title\": ");
+        Assertions.assertThrows(IOException.class, () -> baseClient.saveOrUpdateDocBulkWithRawJson(INDEX_NAME, list));
+    }
+
+    @Test
+    void saveOrUpdateDocBulkWithRawJsonMap() throws IOException {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("11", "{\"id\":\"11\",\"category\":\"饮料\",\"brand\":\"雀巢\",\"price\":22.8,\"title\":\"奶香拿铁\"}");
+        map.put("12", "{\"id\":\"12\",\"category\":\"饮料\",\"brand\":\"瑞幸\",\"price\":12.9,\"title\":\"经典拿铁\"}");
+        BulkResponse bulkResponse = baseClient.saveOrUpdateDocBulkWithRawJson(INDEX_NAME, map);
+        Assertions.assertEquals(false, bulkResponse.errors());
+        Assertions.assertEquals(2, bulkResponse.items().size());
+    }
+
     @Test
     void saveOrUpdateDocBulkWithList() throws IOException {
         List<Product> products = new ArrayList<>();
@@ -251,6 +312,56 @@ public class ElasticsearchBaseClientTest {
         Assertions.assertEquals(7, bulkResponse.items().size());
     }
 
+    @Test
+    void saveDocBulkIfAbsentWithList() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add((Product) new Product().setPrice(BigDecimal.valueOf(12.8)).setCategory("零食").setBrand("亿滋").setTitle("奥利奥6片装").setId("14"));
+        products.add((Product) new Product().setPrice(BigDecimal.valueOf(9.9)).setCategory("零食").setBrand("亿滋").setTitle("奥利奥3片装").setId("21"));
+        baseClient.deleteDoc(INDEX_NAME, "21");
+        BulkResult result = baseClient.saveDocBulkIfAbsentWithList(INDEX_NAME, products);
+        Assertions.assertEquals(Arrays.asList("14"), result.getExisted());
+        Assertions.assertEquals(Arrays.asList("21"), result.getSucceeded());
+    }
+
+    @Test
+    void saveOrUpdateDocBulkWithRetry() throws IOException {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            products.add((Product) new Product().setPrice(BigDecimal.valueOf(i)).setCategory("零食").setBrand("亿滋").setTitle("奥利奥" + i).setId("retry-" + i));
+        }
+        BulkResult result = baseClient.saveOrUpdateDocBulkWithRetry(INDEX_NAME, products, 5);
+        System.out.println(result.getRetried());
+        Assertions.assertEquals(0, result.getFailed().size());
+        Assertions.assertEquals(500, result.getSucceeded().size());
+    }
+
+    @Test
+    void openBulkLoadSession() throws IOException {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            products.add((Product) new Product().setPrice(BigDecimal.valueOf(i)).setCategory("零食").setBrand("亿滋").setTitle("奥利奥" + i).setId("session-" + i));
+        }
+        List<String> original = getRefreshIntervalAndReplicas(INDEX_NAME);
+        try (ElasticsearchBulkLoadSession session = baseClient.openBulkLoadSession(INDEX_NAME)) {
+            Assertions.assertEquals(Arrays.asList("-1", "0"), getRefreshIntervalAndReplicas(session.getIndex()));
+            Assertions.assertEquals(original, Arrays.asList(session.getOriginalRefreshInterval(), session.getOriginalReplicas()));
+            BulkResponse bulkResponse = baseClient.saveOrUpdateDocBulkWithList(INDEX_NAME, products);
+            Assertions.assertEquals(false, bulkResponse.errors());
+        }
+        Assertions.assertEquals(original, getRefreshIntervalAndReplicas(INDEX_NAME));
+    }
+
+    private List<String> getRefreshIntervalAndReplicas(String index) throws IOException {
+        IndexSettings settings = baseClient.getClient().indices().getSettings(a -> a.index(index)).get(index).settings();
+        if (settings.index() != null) {
+            settings = settings.index();
+        }
+        Time refreshInterval = settings.refreshInterval();
+        return Arrays.asList(refreshInterval == null ? null
+                        : refreshInterval.isTime() ? refreshInterval.time() : String.valueOf(refreshInterval.offset()),
+                settings.numberOfReplicas());
+    }
+
     @Test
     void getSearchResponse() throws IOException {
         String json = "{" +
@@ -282,6 +393,15 @@ public class ElasticsearchBaseClientTest {
         Assertions.assertEquals("图书", product.getCategory());
     }
 
+    @Test
+    void queryByIds() throws IOException {
+        MgetResult<Product> result = baseClient.queryByIds(INDEX_NAME, Arrays.asList("2", "1", "not-exist"),
+                Arrays.asList("id", "category"), null, Product.class);
+        Assertions.assertEquals("2", result.getFound().get(0).getId());
+        Assertions.assertEquals("图书", result.getFound().get(1).getCategory());
+        Assertions.assertEquals(Arrays.asList("not-exist"), result.getMissing());
+    }
+
     @Test
     void queryByKeywordSimple() throws IOException {
         List<Product> products = baseClient.queryByKeywordSimple(INDEX_NAME, "title", "苹果", Product.class);
@@ -329,6 +449,205 @@ public class ElasticsearchBaseClientTest {
         p.getContent().stream().forEach(a -> System.out.println(a.getId()));
     }
 
+    @Test
+    void queryByJsonWithCache() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        ElasticsearchQueryCache cache = baseClient.enableQueryCache(1000, 5000);
+        try {
+            Product first = baseClient.queryByJsonWithPage(INDEX_NAME, json, 1, 10, Product.class).getContent().get(0);
+            String title = first.getTitle();
+            first.setTitle("changed by caller");
+            Product cached = baseClient.queryByJsonWithPage(INDEX_NAME, json, 1, 10, Product.class).getContent().get(0);
+            Assertions.assertEquals(1, cache.getStats().getHits());
+            Assertions.assertNotSame(first, cached);
+            Assertions.assertEquals(title, cached.getTitle());
+            baseClient.saveOrUpdateDoc(INDEX_NAME, (Product) new Product().setTitle("奥利奥").setId("cache-1"), true);
+            Assertions.assertEquals(0, cache.getStats().getSize());
+            baseClient.queryByJsonWithPage(INDEX_NAME, json, 1, 10, Product.class);
+            Assertions.assertEquals(2, cache.getStats().getMisses());
+        } finally {
+            baseClient.disableQueryCache();
+        }
+    }
+
+    @Test
+    void queryByJsonWithSourceFilter() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        List<Product> list = baseClient.queryByJson(INDEX_NAME, json, Arrays.asList("title", "brand"), null, Product.class);
+        list.forEach(a -> {
+            Assertions.assertNull(a.getStore());
+            Assertions.assertNull(a.getPrice());
+        });
+        Page<ProductSummary> page = baseClient.queryByJsonWithProjection(INDEX_NAME, json, PageRequest.of(1, 10), ProductSummary.class);
+        page.getContent().forEach(System.out::println);
+    }
+
+    @Test
+    void queryByJsonWithLazyPage() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        ElasticsearchLazyPage<Product> page = baseClient.queryByJsonWithLazyPage(INDEX_NAME, json, PageRequest.of(1, 2), Product.class);
+        Assertions.assertFalse(page.isTotalExact());
+        if (page.hasContent()) {
+            System.out.println(page.getContent().get(0));
+        }
+        ElasticsearchLazyPage<Product> counted = baseClient.queryByJsonWithLazyPage(INDEX_NAME, json, PageRequest.of(1, 2), Integer.MAX_VALUE, Product.class);
+        Assertions.assertTrue(counted.isTotalExact());
+        Assertions.assertEquals(counted.getTotalElements() > 2, counted.hasNext());
+    }
+
+    @Test
+    void countAndExistsByQuery() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        String none = "{" +
+                "  \"query\": {" +
+                "    \"term\": {\"brand\": \"no-such-brand\"}" +
+                "  }" +
+                "}";
+        long count = baseClient.count(INDEX_NAME, json);
+        Assertions.assertEquals(count > 0, baseClient.existsByQuery(INDEX_NAME, json));
+        Assertions.assertEquals(0, baseClient.count(INDEX_NAME, none));
+        Assertions.assertFalse(baseClient.existsByQuery(INDEX_NAME, none));
+    }
+
+    @Test
+    void queryByJsonWithConsumer() throws IOException {
+        String json = "{" +
+                "  \"size\": 1000," +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        List<Product> list = new ArrayList<>();
+        long count = baseClient.queryByJsonWithConsumer(INDEX_NAME, json, Product.class, list::add);
+        Assertions.assertEquals(baseClient.queryByJson(INDEX_NAME, json, Product.class).size(), count);
+        Assertions.assertEquals(count, list.size());
+    }
+
+    @Test
+    void queryByJsonWithPageWithSingleFlight() throws Exception {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        ElasticsearchSingleFlight singleFlight = baseClient.enableSingleFlight(ElasticsearchSingleFlight.QUERY_BY_JSON_WITH_PAGE);
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            List<Future<Page<Product>>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> baseClient.queryByJsonWithPage(INDEX_NAME, json, 1, 10, Product.class)));
+            }
+            for (Future<Page<Product>> future : futures) {
+                Assertions.assertNotNull(future.get());
+            }
+            Assertions.assertEquals(20, singleFlight.getExecuted() + singleFlight.getShared());
+            System.out.println("executed " + singleFlight.getExecuted() + ", shared " + singleFlight.getShared());
+        } finally {
+            executor.shutdown();
+            baseClient.disableSingleFlight();
+        }
+    }
+
+    @Test
+    void queryByIdWithNearCache() throws IOException {
+        ElasticsearchNearCache cache = baseClient.enableNearCache(1 << 20, 512);
+        try {
+            baseClient.saveOrUpdateDoc(INDEX_NAME, (Product) new Product().setTitle("奥利奥").setId("near-1"), true);
+            baseClient.queryById(INDEX_NAME, "near-1", Product.class);
+            Product product = baseClient.queryById(INDEX_NAME, "near-1", Product.class);
+            Assertions.assertEquals("奥利奥", product.getTitle());
+            Assertions.assertEquals(1, cache.getStats().getHits());
+            baseClient.saveOrUpdateDoc(INDEX_NAME, (Product) new Product().setTitle("趣多多").setId("near-1"), true);
+            Assertions.assertEquals(0, cache.getStats().getSize());
+            Assertions.assertEquals("趣多多", baseClient.queryById(INDEX_NAME, "near-1", Product.class).getTitle());
+        } finally {
+            baseClient.disableNearCache();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void queryByIdWithNearCacheAcrossClasses() throws IOException {
+        ElasticsearchNearCache cache = baseClient.enableNearCache(1 << 20, 512);
+        try {
+            baseClient.saveOrUpdateDoc(INDEX_NAME, (Product) new Product().setTitle("奥利奥").setBrand("亿滋")
+                    .setId("near-2"), true);
+            // the same client bean injected with another type
+            ElasticsearchBaseClient<Company> companyClient = (ElasticsearchBaseClient<Company>) (ElasticsearchBaseClient<?>) baseClient;
+            Assertions.assertNotNull(companyClient.queryById(INDEX_NAME, "near-2", Company.class));
+            Product product = baseClient.queryById(INDEX_NAME, "near-2", Product.class);
+            Assertions.assertEquals(1, cache.getStats().getHits());
+            Assertions.assertEquals("奥利奥", product.getTitle());
+            Assertions.assertEquals("亿滋", product.getBrand());
+            product.setBrand("changed");
+            Assertions.assertEquals("亿滋", baseClient.queryById(INDEX_NAME, "near-2", Product.class).getBrand());
+        } finally {
+            baseClient.disableNearCache();
+        }
+    }
+
+    @Test
+    void queryByCompiledJson() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"bool\": {" +
+                "      \"must\": [" +
+                "        {\"term\": {\"category\": \"{{category}}\"}}," +
+                "        {\"range\": {\"price\": {\"gte\": \"{{minPrice}}\"}}}" +
+                "      ]" +
+                "    }" +
+                "  }" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("category", "零食");
+        params.put("minPrice", 10);
+        List<Product> list = baseClient.queryByCompiledJson(INDEX_NAME, "product-by-category", json, params, Product.class);
+        list.stream().forEach(a -> Assertions.assertEquals("零食", a.getCategory()));
+        params.put("category", "图书");
+        Page<Product> page = baseClient.queryByCompiledJsonWithPage(INDEX_NAME, "product-by-category", json, params, PageRequest.of(1, 10), Product.class);
+        page.getContent().stream().forEach(a -> Assertions.assertEquals("图书", a.getCategory()));
+    }
+
+    @Test
+    void queryByJsonWithStream() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        long total = baseClient.getSearchResponse(INDEX_NAME, "{\"track_total_hits\": true, \"size\": 0}", null, Product.class).hits().total().value();
+        try (Stream<Product> stream = baseClient.queryByJsonWithStream(INDEX_NAME, json, 100, Product.class)) {
+            Assertions.assertEquals(total, stream.count());
+        }
+    }
+
+    @Test
+    void exportWithSlices() throws IOException {
+        long total = baseClient.getSearchResponse(INDEX_NAME, "{\"track_total_hits\": true, \"size\": 0}", null, Product.class).hits().total().value();
+        List<String> ids = new ArrayList<>();
+        ExportStats stats = new ElasticsearchSlicedExporter<>(baseClient, 4)
+                .setProgressListener(a -> System.out.println(a.getDocs() + " docs, " + a.getSlicesDone() + "/" + a.getSlices() + " slices"))
+                .export(INDEX_NAME, null, Product.class, a -> ids.add(a.getId()));
+        Assertions.assertEquals(total, stats.getDocs());
+        Assertions.assertEquals(total, new HashSet<>(ids).size());
+    }
+
     @Test
     void queryFieldsByJsonWithPage() throws IOException {
         String json = "{" +
@@ -364,6 +683,62 @@ public class ElasticsearchBaseClientTest {
         brands.stream().forEach(a -> System.out.println(a.key() + " 有 " + a.docCount() + " 件"));
     }
 
+    @Test
+    void getCompositeBucketByJson() throws IOException {
+        String json = "{" +
+                "  \"aggs\": {" +
+                "    \"brands\": {" +
+                "      \"composite\": {" +
+                "        \"size\": 2," +
+                "        \"sources\": [{\"brand\": {\"terms\": {\"field\": \"brand\"}}}]" +
+                "      }," +
+                "      \"aggs\": {" +
+                "        \"avg_price\": {\"avg\": {\"field\": \"price\"}}" +
+                "      }" +
+                "    }" +
+                "  }" +
+                "}";
+        List<String> keys = new ArrayList<>();
+        try (Stream<CompositeBucket> buckets = baseClient.getCompositeBucketByJson(INDEX_NAME, json, "brands")) {
+            buckets.forEach(a -> {
+                keys.add(a.key().get("brand").to(String.class));
+                System.out.println(a.key().get("brand") + " 有 " + a.docCount() + " 件，均价 "
+                        + a.aggregations().get("avg_price").avg().value());
+            });
+        }
+        String termsJson = "{\"size\": 0, \"aggs\": {\"brands\": {\"terms\": {\"field\": \"brand\", \"size\": 10000}}}}";
+        List<StringTermsBucket> brands = baseClient.getStringTermsBucketByJson(INDEX_NAME, termsJson, "brands");
+        Assertions.assertEquals(brands.size(), keys.size());
+        Assertions.assertEquals(keys.size(), new HashSet<>(keys).size());
+    }
+
+    @Test
+    void multiSearch() throws IOException {
+        String json = "{" +
+                "  \"query\": {" +
+                "    \"match_all\": {}" +
+                "  }" +
+                "}";
+        String aggJson = "{" +
+                "  \"size\": 0," +
+                "  \"aggs\": {" +
+                "    \"brands\": {" +
+                "      \"terms\": {" +
+                "        \"field\": \"brand\"," +
+                "        \"size\": 10" +
+                "      }" +
+                "    }" +
+                "  }" +
+                "}";
+        ElasticsearchMultiSearch<Product> multiSearch = baseClient.multiSearch(Product.class);
+        ElasticsearchMultiSearch.Item<Page<Product>> page = multiSearch.queryByJsonWithPage(INDEX_NAME, json, PageRequest.of(1, 10));
+        ElasticsearchMultiSearch.Item<List<StringTermsBucket>> brands = multiSearch.getStringTermsBucketByJson(INDEX_NAME, aggJson, "brands");
+        multiSearch.execute();
+        page.get().getContent().stream().forEach(a -> System.out.println(a.getId()));
+        brands.get().stream().forEach(a -> System.out.println(a.key() + " 有 " + a.docCount() + " 件"));
+        Assertions.assertEquals(false, page.isFailure());
+    }
+
     @Test
     void getSuggestionsByJson() throws IOException {
         String json = "{" +
@@ -380,6 +755,20 @@ public class ElasticsearchBaseClientTest {
         titles.stream().forEach(title -> System.out.println(title));
     }
 
+    @Test
+    void localSuggester() throws IOException {
+        try (ElasticsearchLocalSuggester suggester = new ElasticsearchLocalSuggester(baseClient, INDEX_NAME,
+                "title.suggest_pinyin_first", "title", 60000, 100000)) {
+            Assertions.assertFalse(suggester.isLoaded());
+            suggester.suggest("m", 5).forEach(System.out::println);
+            suggester.refresh();
+            Assertions.assertTrue(suggester.isLoaded());
+            suggester.suggest("奥", 5).forEach(System.out::println);
+            Assertions.assertThrows(IOException.class, () -> suggester.suggest("奥", 0));
+            Assertions.assertThrows(IOException.class, () -> suggester.suggest("奥", -1));
+        }
+    }
+
     @Test
     void getHistogramBucketByJson() throws IOException {
         String json = "{" +
@@ -413,6 +802,34 @@ public class ElasticsearchBaseClientTest {
         baseClient.createQueryScript(scriptId, script, lang, force);
     }
 
+    @Test
+    void registerScript() throws IOException {
+        String scriptId = "add_price_registry";
+        String source = "ctx._source.price += params.value";
+        ElasticsearchScriptRegistry registry = baseClient.getScriptRegistry();
+        registry.register(scriptId, source, "painless", true);
+        Assertions.assertFalse(registry.register(scriptId, source, "painless", true));
+        Assertions.assertTrue(registry.register(scriptId, source + " * 2", "painless", true));
+        Assertions.assertTrue(registry.delete(scriptId));
+        Assertions.assertFalse(registry.isRegistered(scriptId));
+    }
+
+    @Test
+    void registerScriptOverDifferentScript() throws IOException {
+        String scriptId = "add_price_registry_other";
+        String source = "ctx._source.price += params.value";
+        String other = "ctx._source.price -= params.value";
+        ElasticsearchScriptRegistry registry = baseClient.getScriptRegistry();
+        registry.forget(scriptId);
+        baseClient.getClient().putScript(r -> r.id(scriptId).script(s -> s.lang("painless").source(other)));
+        Assertions.assertFalse(registry.register(scriptId, source, "painless", false));
+        Assertions.assertFalse(registry.isRegistered(scriptId, source, "painless"));
+        Assertions.assertTrue(registry.isRegistered(scriptId, other, "painless"));
+        Assertions.assertTrue(registry.register(scriptId, source, "painless", true));
+        Assertions.assertTrue(registry.isRegistered(scriptId, source, "painless"));
+        Assertions.assertTrue(registry.delete(scriptId));
+    }
+
     @Test
     void hasScriptExist() throws IOException {
         String scriptId = "add_price";
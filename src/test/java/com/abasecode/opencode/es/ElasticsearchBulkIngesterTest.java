@@ -0,0 +1,175 @@
+package com.abasecode.opencode.es;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import com.abasecode.opencode.es.config.ElasticsearchConfig;
+import com.abasecode.opencode.es.entity.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchBulkIngesterTest {
+
+    ElasticsearchBaseClient<Product> baseClient;
+    String INDEX_NAME = "product";
+
+    @BeforeEach
+    public void start() {
+        ElasticsearchConfig.EsConfig esConfig = new ElasticsearchConfig.EsConfig();
+        esConfig.setPassword("Es789456");
+        esConfig.setUsername("elastic");
+        esConfig.setUris(Arrays.asList("http://192.168.3.230:9200"));
+        baseClient = new ElasticsearchBaseClient<>(esConfig);
+    }
+
+    @Test
+    void index() throws IOException {
+        ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient, 100, 1024 * 1024, 500, 2);
+        for (int i = 0; i < 1000; i++) {
+            ingester.index(INDEX_NAME, (Product) new Product()
+                    .setPrice(BigDecimal.valueOf(i))
+                    .setCategory("测试")
+                    .setBrand("ingester")
+                    .setTitle("bulk ingester " + i)
+                    .setId("ingester-" + i));
+        }
+        ingester.close();
+        Assertions.assertEquals(1000, ingester.getSucceeded());
+        Assertions.assertEquals(10, ingester.getRequests());
+    }
+
+    @Test
+    void indexWithThrowingListener() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient, 100, 1024 * 1024, 0, 2)
+                .setListener(new ElasticsearchBulkIngester.Listener() {
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        calls.incrementAndGet();
+                        throw new IllegalStateException("listener failed");
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        calls.incrementAndGet();
+                    }
+                });
+        for (int i = 0; i < 300; i++) {
+            ingester.index(INDEX_NAME, (Product) new Product()
+                    .setPrice(BigDecimal.valueOf(i))
+                    .setCategory("测试")
+                    .setBrand("ingester")
+                    .setTitle("bulk ingester " + i)
+                    .setId("ingester-" + i));
+        }
+        ingester.close();
+        Assertions.assertEquals(300, ingester.getSucceeded());
+        Assertions.assertEquals(0, ingester.getFailed());
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    void indexJsonWithLineBreaks() throws IOException {
+        String pretty = "{\n" +
+                "  \"category\": \"饮料\",\n" +
+                "  \"brand\": \"雀巢\",\n" +
+                "  \"title\": \"多行文档\"\r\n" +
+                "}";
+        String line = "{\"category\":\"饮料\",\"brand\":\"瑞幸\",\"title\":\"单行文档\"}";
+        try (ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient, 100, 1024 * 1024, 0, 2)) {
+            ingester.index(INDEX_NAME, "ingester-pretty", pretty.getBytes(StandardCharsets.UTF_8));
+            ingester.index(INDEX_NAME, "ingester-line", line.getBytes(StandardCharsets.UTF_8));
+            Assertions.assertThrows(IOException.class, () -> ingester.index(INDEX_NAME, "ingester-broken",
+                    "{\n\"title\": ".getBytes(StandardCharsets.UTF_8)));
+            ingester.flush();
+            Assertions.assertEquals(2, ingester.getSucceeded());
+            Assertions.assertEquals(0, ingester.getFailed());
+        }
+        Assertions.assertEquals("多行文档", baseClient.queryById(INDEX_NAME, "ingester-pretty", Product.class).getTitle());
+    }
+
+    @Test
+    void flushLingeringOperation() throws IOException, InterruptedException {
+        try (ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient, 10, 1024 * 1024, 1000, 2)) {
+            Thread.sleep(1100);
+            for (int i = 0; i < 11; i++) {
+                ingester.index(INDEX_NAME, (Product) new Product().setTitle("linger " + i).setId("ingester-linger-" + i));
+            }
+            long added = System.currentTimeMillis();
+            Assertions.assertEquals(1, ingester.getRequests());
+            while (ingester.getRequests() < 2 && System.currentTimeMillis() - added < 3000) {
+                Thread.sleep(10);
+            }
+            // the operation after the size flush is sent at flushInterval, not up to twice of it
+            Assertions.assertEquals(2, ingester.getRequests());
+            Assertions.assertTrue(System.currentTimeMillis() - added < 1500);
+        }
+    }
+
+    @Test
+    void delete() throws IOException {
+        try (ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient)) {
+            for (int i = 0; i < 1000; i++) {
+                ingester.delete(INDEX_NAME, "ingester-" + i);
+            }
+            ingester.flush();
+            Assertions.assertEquals(1000, ingester.getSucceeded() + ingester.getFailed());
+        }
+    }
+
+    @Test
+    void ingestNdjson(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("product.ndjson");
+        Files.write(file, Arrays.asList(
+                "{\"id\":\"ndjson-1\",\"category\":\"饮料\",\"brand\":\"雀巢\",\"price\":22.8,\"title\":\"奶香拿铁\"}",
+                "",
+                "{\"id\":\"ndjson-2\",\"category\":\"饮料\",\"brand\":\"瑞幸\",\"price\":12.9,\"title\":\"经典拿铁\"}\r"),
+                StandardCharsets.UTF_8);
+        try (ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient)) {
+            long count = new ElasticsearchFileIngester<>(ingester).ingestNdjson(INDEX_NAME, file.toString());
+            Assertions.assertEquals(2, count);
+            Assertions.assertEquals(count, ingester.getSucceeded());
+        }
+    }
+
+    @Test
+    void ingestDirectory(@TempDir Path dir) throws IOException {
+        Files.write(dir.resolve("a.ndjson"), Arrays.asList(
+                "{\"id\":\"dir-1\",\"category\":\"饮料\",\"brand\":\"雀巢\",\"price\":22.8,\"title\":\"奶香拿铁\"}",
+                "{\"id\":\"dir-2\",\"category\":\"饮料\",\"brand\":\"瑞幸\",\"price\":12.9,\"title\":\"经典拿铁\"}"),
+                StandardCharsets.UTF_8);
+        Files.write(dir.resolve("b.json"), Arrays.asList(
+                "{",
+                "  \"id\": \"dir-3\",",
+                "  \"category\": \"饮料\",",
+                "  \"brand\": \"雀巢\",",
+                "  \"price\": 18.5,",
+                "  \"title\": \"多行拿铁\"",
+                "}"),
+                StandardCharsets.UTF_8);
+        Files.write(dir.resolve("c.txt"), Arrays.asList("not a document"), StandardCharsets.UTF_8);
+        try (ElasticsearchBulkIngester<Product> ingester = new ElasticsearchBulkIngester<>(baseClient)) {
+            long count = new ElasticsearchFileIngester<>(ingester).ingestDirectory(INDEX_NAME, dir.toString());
+            Assertions.assertEquals(3, count);
+            Assertions.assertEquals(3, ingester.getSucceeded());
+            Assertions.assertEquals(0, ingester.getFailed());
+        }
+        Assertions.assertEquals("多行拿铁", baseClient.queryById(INDEX_NAME, "dir-3", Product.class).getTitle());
+    }
+}
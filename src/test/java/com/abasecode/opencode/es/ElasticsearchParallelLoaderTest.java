@@ -0,0 +1,97 @@
+package com.abasecode.opencode.es;
+
+import com.abasecode.opencode.es.config.ElasticsearchConfig;
+import com.abasecode.opencode.es.entity.LoadStats;
+import com.abasecode.opencode.es.entity.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * @author Jon
+ * e-mail: ijonso123@gmail.com
+ * url: <a href="https://jon.wiki">Jon's blog</a>
+ * url: <a href="https://github.com/abasecode">project github</a>
+ * url: <a href="https://abasecode.com">AbaseCode.com</a>
+ */
+public class ElasticsearchParallelLoaderTest {
+
+    ElasticsearchBaseClient<Product> baseClient;
+    String INDEX_NAME = "product";
+
+    @BeforeEach
+    public void start() {
+        ElasticsearchConfig.EsConfig esConfig = new ElasticsearchConfig.EsConfig();
+        esConfig.setPassword("Es789456");
+        esConfig.setUsername("elastic");
+        esConfig.setUris(Arrays.asList("http://192.168.3.230:9200"));
+        baseClient = new ElasticsearchBaseClient<>(esConfig);
+    }
+
+    @Test
+    void load() throws IOException {
+        LoadStats stats = new ElasticsearchParallelLoader<>(baseClient, 4, 100, 1024 * 1024, 3)
+                .load(INDEX_NAME, IntStream.range(0, 1000).mapToObj(i -> product("loader-" + i, i)));
+        Assertions.assertEquals(1000, stats.getDocs());
+        Assertions.assertEquals(0, stats.getFailed());
+        Assertions.assertTrue(stats.getBatches() >= 10);
+        LoadStats deleted = new ElasticsearchParallelLoader<>(baseClient, 4)
+                .delete(INDEX_NAME, IntStream.range(0, 1000).mapToObj(i -> "loader-" + i));
+        Assertions.assertEquals(1000, deleted.getDocs());
+        Assertions.assertEquals(0, deleted.getFailed());
+    }
+
+    @Test
+    void loadInParallel() throws IOException {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        LoadStats stats = new ElasticsearchParallelLoader<>(baseClient, 4, 50, 1024 * 1024, 3)
+                .setProgressListener(a -> threads.add(Thread.currentThread().getName()))
+                .load(INDEX_NAME, IntStream.range(0, 1000).mapToObj(i -> product("loader-" + i, i)));
+        Assertions.assertEquals(1000, stats.getDocs());
+        Assertions.assertEquals(4, threads.size());
+    }
+
+    @Test
+    void loadKeepsOrderOfSameId() throws IOException {
+        // 10 versions of 20 ids, every version in another batch of the lane of the id
+        LoadStats stats = new ElasticsearchParallelLoader<>(baseClient, 4, 5, 1024 * 1024, 3)
+                .load(INDEX_NAME, IntStream.range(0, 200).mapToObj(i -> product("loader-order-" + i % 20, i / 20)));
+        Assertions.assertEquals(200, stats.getDocs());
+        for (int i = 0; i < 20; i++) {
+            Product product = baseClient.queryById(INDEX_NAME, "loader-order-" + i, Product.class);
+            Assertions.assertEquals(0, BigDecimal.valueOf(9).compareTo(product.getPrice()));
+        }
+    }
+
+    @Test
+    void loadCountsEveryFailedDoc() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        // invalid index name, every item fails, docs without id have the same null id
+        LoadStats stats = new ElasticsearchParallelLoader<>(baseClient, 2, 100, 1024 * 1024, 0)
+                .setFailureListener((id, reason) -> {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("listener failed");
+                })
+                .load("INVALID_PRODUCT", IntStream.range(0, 10).mapToObj(i -> product(null, i)));
+        Assertions.assertEquals(0, stats.getDocs());
+        Assertions.assertEquals(10, stats.getFailed());
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    private static Product product(String id, int price) {
+        return (Product) new Product()
+                .setPrice(BigDecimal.valueOf(price))
+                .setCategory("测试")
+                .setBrand("loader")
+                .setTitle("parallel loader " + price)
+                .setId(id);
+    }
+}